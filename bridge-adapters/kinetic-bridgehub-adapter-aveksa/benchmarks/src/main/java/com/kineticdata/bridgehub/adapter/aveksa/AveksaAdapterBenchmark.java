@@ -0,0 +1,130 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.Count;
+import com.kineticdata.bridgehub.adapter.Record;
+import com.kineticdata.bridgehub.adapter.RecordList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs count, retrieve and search end to end against the stub Aveksa server, including the http
+ * round trip, parsing and record construction. The result cache is left disabled so every call
+ * reaches the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AveksaAdapterBenchmark {
+
+    @Param({"10", "1000"})
+    public int rows;
+
+    @Param({"10"})
+    public int columns;
+
+    @Param({"32"})
+    public int valueWidth;
+
+    @Param({"0"})
+    public long latencyMillis;
+
+    @Param({"0"})
+    public int requestsPerToken;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private StubAveksaServer server;
+    private AveksaAdapter adapter;
+    private BridgeRequest countRequest;
+    private BridgeRequest retrieveRequest;
+    private BridgeRequest searchRequest;
+    private BridgeRequest pagedSearchRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new StubAveksaServer(rows, columns, valueWidth, latencyMillis, requestsPerToken, gzip);
+        server.start();
+
+        Map<String,String> properties = new HashMap<String,String>();
+        properties.put(AveksaAdapter.Properties.PROPERTY_USERNAME, "benchmark");
+        properties.put(AveksaAdapter.Properties.PROPERTY_PASSWORD, "benchmark");
+        properties.put(AveksaAdapter.Properties.PROPERTY_URL, server.getUrl());
+        properties.put(AveksaAdapter.Properties.PROPERTY_SEARCH_WINDOW_TTL, "0");
+        adapter = new AveksaAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        countRequest = request("status=<%=parameter[\"Status\"]%>", null, Collections.<String,String>emptyMap());
+        retrieveRequest = request("id=<%=parameter[\"Id\"]%>", Collections.singletonMap("Id", String.valueOf(rows / 2)),
+            Collections.<String,String>emptyMap());
+        searchRequest = request("status=<%=parameter[\"Status\"]%>", null, Collections.<String,String>emptyMap());
+        Map<String,String> metadata = new HashMap<String,String>();
+        metadata.put("pageSize", "25");
+        metadata.put("offset", "0");
+        metadata.put("order", "<%=field[\"column2\"]%>:DESC");
+        pagedSearchRequest = request("status=<%=parameter[\"Status\"]%>", null, metadata);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.destroy();
+        server.stop();
+    }
+
+    @Benchmark
+    public Count count() throws BridgeError {
+        return adapter.count(countRequest);
+    }
+
+    @Benchmark
+    public Record retrieve() throws BridgeError {
+        return adapter.retrieve(retrieveRequest);
+    }
+
+    @Benchmark
+    public RecordList search() throws BridgeError {
+        return adapter.search(searchRequest);
+    }
+
+    @Benchmark
+    public RecordList searchSortedPage() throws BridgeError {
+        return adapter.search(pagedSearchRequest);
+    }
+
+    private BridgeRequest request(String query, Map<String,String> parameters, Map<String,String> metadata) {
+        Map<String,String> values = new HashMap<String,String>();
+        values.put("Status", "Active");
+        if (parameters != null) {
+            values.putAll(parameters);
+        }
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("Users");
+        request.setFields(Arrays.asList("id", "column1", "column2", "column3"));
+        request.setQuery(query);
+        request.setParameters(values);
+        request.setMetadata(new HashMap<String,String>(metadata));
+        return request;
+    }
+}
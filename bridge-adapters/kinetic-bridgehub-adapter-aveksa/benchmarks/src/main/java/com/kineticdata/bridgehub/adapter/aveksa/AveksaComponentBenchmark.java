@@ -0,0 +1,132 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import com.kineticdata.bridgehub.adapter.BridgeUtils;
+import com.kineticdata.bridgehub.adapter.Record;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the steps of a bridge call on their own, without any http: building the command url,
+ * parsing a find response, scanning a response for a count, sorting rows and building records.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AveksaComponentBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String COMMAND = "findUsers";
+
+    @Param({"10", "1000"})
+    public int rows;
+
+    @Param({"10"})
+    public int columns;
+
+    @Param({"32"})
+    public int valueWidth;
+
+    private AveksaAdapter adapter;
+    private BridgeRequest request;
+    private List<String> fields;
+    private Map<String,String> order;
+    private byte[] response;
+    private AveksaResult result;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String,String> properties = new HashMap<String,String>();
+        properties.put(AveksaAdapter.Properties.PROPERTY_USERNAME, "benchmark");
+        properties.put(AveksaAdapter.Properties.PROPERTY_PASSWORD, "benchmark");
+        // Nothing listens here, the adapter only logs that it could not log in up front
+        properties.put(AveksaAdapter.Properties.PROPERTY_URL, "http://127.0.0.1:1");
+        adapter = new AveksaAdapter();
+        adapter.setProperties(properties);
+        adapter.initialize();
+
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("Status", "Active");
+        parameters.put("Department", "Research & Development");
+        fields = Arrays.asList("id", "column1", "column2", "column3");
+        request = new BridgeRequest();
+        request.setStructure("Users");
+        request.setFields(fields);
+        request.setQuery("status=<%=parameter[\"Status\"]%>&department=<%=parameter[\"Department\"]%>");
+        request.setParameters(parameters);
+        order = BridgeUtils.parseOrder("<%=field[\"column2\"]%>:DESC,<%=field[\"id\"]%>:ASC");
+
+        int[] rowIds = new int[rows];
+        for (int row = 0; row < rows; row++) {
+            rowIds[row] = row;
+        }
+        response = StubAveksaServer.buildResponse(COMMAND, null, columns, valueWidth, rowIds);
+        result = parse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        adapter.destroy();
+    }
+
+    @Benchmark
+    public String buildUrl() throws BridgeError {
+        return adapter.buildCommandUrl(COMMAND, request.getFields(), adapter.resolveFilter(request));
+    }
+
+    @Benchmark
+    public AveksaResult parseResponse() throws Exception {
+        return parse();
+    }
+
+    @Benchmark
+    public long scanCount() throws Exception {
+        AveksaCountScanner scanner = new AveksaCountScanner(COMMAND);
+        scanner.parse(new ByteArrayInputStream(response), UTF_8);
+        return scanner.getCount();
+    }
+
+    @Benchmark
+    public AveksaResult sortRows() {
+        return result.sort(order);
+    }
+
+    @Benchmark
+    public void buildRecords(Blackhole blackhole) {
+        // Read every value, the records are only built as they are read
+        for (Record record : result.toRecords(fields, 0, result.getRowCount())) {
+            for (String field : fields) {
+                blackhole.consume(record.getValue(field));
+            }
+        }
+    }
+
+    private AveksaResult parse() throws Exception {
+        AveksaResponseParser parser = new AveksaResponseParser(COMMAND, fields, -1);
+        parser.parse(new ByteArrayInputStream(response), UTF_8);
+        return parser.getResult();
+    }
+}
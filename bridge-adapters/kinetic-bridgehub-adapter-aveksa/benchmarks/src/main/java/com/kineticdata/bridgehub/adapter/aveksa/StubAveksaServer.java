@@ -0,0 +1,248 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stand-in for the Aveksa /aveksa/command.submit endpoint, used to benchmark the adapter
+ * without an Aveksa server.
+ *
+ * loginUser returns a new token. find&lt;Structure&gt; returns the configured number of rows with
+ * an "id" column followed by "column1" to "columnN", each value the configured number of
+ * characters long; a filter on id returns only that row and any other filter is ignored. Every
+ * request can be delayed by a fixed latency, and tokens can be made to expire after a number of
+ * find requests so the adapter has to log in again after a 401. When enabled, find responses are
+ * gzip compressed for requests that accept it.
+ */
+public class StubAveksaServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int rows;
+    private final int columns;
+    private final int valueWidth;
+    private final long latencyMillis;
+    private final int requestsPerToken;
+    private final boolean gzip;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String,byte[]> responses = new ConcurrentHashMap<String,byte[]>();
+    private final AtomicInteger tokenCount = new AtomicInteger();
+    private final AtomicInteger tokenRequests = new AtomicInteger();
+    private volatile String token;
+
+    /**
+     * @param rows the number of rows every find command returns
+     * @param columns the number of columns besides id
+     * @param valueWidth the length of every column value
+     * @param latencyMillis the delay before every response is sent
+     * @param requestsPerToken the find requests a token is good for, or 0 for tokens that never expire
+     * @param gzip whether find responses are compressed for requests that accept gzip
+     */
+    public StubAveksaServer(int rows, int columns, int valueWidth, long latencyMillis, int requestsPerToken,
+        boolean gzip) throws IOException {
+        this.rows = rows;
+        this.columns = columns;
+        this.valueWidth = valueWidth;
+        this.latencyMillis = latencyMillis;
+        this.requestsPerToken = requestsPerToken;
+        this.gzip = gzip;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/aveksa/command.submit", new CommandHandler());
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "stub-aveksa");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** Returns the url to configure as the adapter's Aveksa Url. */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Builds a find command response body holding the given rows and columns.
+     *
+     * @param fields the columns to return, or null for id and every generated column
+     * @param rowIds the ids of the rows to return
+     */
+    public static byte[] buildResponse(String command, List<String> fields, int columns, int valueWidth, int[] rowIds) {
+        if (fields == null) {
+            fields = new ArrayList<String>();
+            fields.add("id");
+            for (int column = 1; column <= columns; column++) {
+                fields.add("column" + column);
+            }
+        }
+        StringBuilder json = new StringBuilder(64 + rowIds.length * fields.size() * (valueWidth + 16));
+        json.append("{\"").append(command).append("\":[");
+        for (int i = 0; i < rowIds.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('{');
+            for (int j = 0; j < fields.size(); j++) {
+                if (j > 0) {
+                    json.append(',');
+                }
+                String field = fields.get(j);
+                json.append('"').append(field).append("\":");
+                if (field.equals("id")) {
+                    json.append(rowIds[i]);
+                } else {
+                    json.append('"').append(value(field, rowIds[i], valueWidth)).append('"');
+                }
+            }
+            json.append('}');
+        }
+        json.append("],\"Total\":").append(rowIds.length).append('}');
+        return json.toString().getBytes(UTF_8);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static String value(String field, int row, int valueWidth) {
+        // Every tenth row repeats a value so some columns have shared values, like a status would
+        String seed = (row % 10 == 0 ? 0 : row) + "-" + field + "-";
+        StringBuilder value = new StringBuilder(valueWidth);
+        while (value.length() < valueWidth) {
+            value.append(seed);
+        }
+        value.setLength(valueWidth);
+        return value.toString();
+    }
+
+    private byte[] findResponse(String command, String returnColumns, String id, boolean compressed) throws IOException {
+        String key = command + "\u0000" + returnColumns + "\u0000" + id + "\u0000" + compressed;
+        byte[] response = responses.get(key);
+        if (response == null) {
+            int[] rowIds;
+            if (id != null) {
+                int row = Integer.parseInt(id);
+                rowIds = row >= 0 && row < rows ? new int[] {row} : new int[0];
+            } else {
+                rowIds = new int[rows];
+                for (int row = 0; row < rows; row++) {
+                    rowIds[row] = row;
+                }
+            }
+            List<String> fields = returnColumns == null ? null : Arrays.asList(returnColumns.split(","));
+            response = buildResponse(command, fields, columns, valueWidth, rowIds);
+            if (compressed) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                GZIPOutputStream output = new GZIPOutputStream(bytes);
+                output.write(response);
+                output.close();
+                response = bytes.toByteArray();
+            }
+            responses.put(key, response);
+        }
+        return response;
+    }
+
+    private static Map<String,String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String,String> parameters = new HashMap<String,String>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            output.write(body);
+        } finally {
+            output.close();
+        }
+    }
+
+    private class CommandHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                InputStream request = exchange.getRequestBody();
+                while (request.read() != -1) {
+                    // Drain the login body so the connection can be reused
+                }
+                Map<String,String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+                String command = parameters.get("cmd");
+
+                if ("loginUser".equals(command)) {
+                    token = "token=stub" + tokenCount.incrementAndGet();
+                    tokenRequests.set(0);
+                    send(exchange, 200, (token + "\n").getBytes(UTF_8), "text/plain");
+                } else if (command != null && command.startsWith("find")) {
+                    String current = token;
+                    boolean expired = requestsPerToken > 0 && tokenRequests.incrementAndGet() > requestsPerToken;
+                    if (current == null || expired || !current.substring(6).equals(parameters.get("token"))) {
+                        send(exchange, 401, "Unauthorized".getBytes(UTF_8), "text/plain");
+                    } else {
+                        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                        boolean compressed = gzip && acceptEncoding != null && acceptEncoding.contains("gzip");
+                        if (compressed) {
+                            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                        }
+                        byte[] body = findResponse(command, parameters.get("returnColumns"), parameters.get("id"), compressed);
+                        send(exchange, 200, body, "application/json; charset=UTF-8");
+                    }
+                } else {
+                    send(exchange, 404, "Not Found".getBytes(UTF_8), "text/plain");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.close();
+            } catch (RuntimeException e) {
+                send(exchange, 500, String.valueOf(e).getBytes(UTF_8), "text/plain");
+            }
+        }
+    }
+}
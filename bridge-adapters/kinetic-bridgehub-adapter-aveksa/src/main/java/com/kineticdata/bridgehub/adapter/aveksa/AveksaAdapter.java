@@ -5,40 +5,71 @@ import com.kineticdata.bridgehub.adapter.BridgeError;
 import com.kineticdata.bridgehub.adapter.BridgeRequest;
 import com.kineticdata.bridgehub.adapter.BridgeUtils;
 import com.kineticdata.bridgehub.adapter.Count;
+import com.kineticdata.bridgehub.adapter.DisposableAdapter;
 import com.kineticdata.bridgehub.adapter.Record;
 import com.kineticdata.bridgehub.adapter.RecordList;
 import com.kineticdata.commons.v1.config.ConfigurableProperty;
 import com.kineticdata.commons.v1.config.ConfigurablePropertyMap;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.nio.charset.Charset;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.DeflateInputStream;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
 import org.slf4j.LoggerFactory;
 
-public class AveksaAdapter implements BridgeAdapter {
+public class AveksaAdapter implements BridgeAdapter, DisposableAdapter {
     /*----------------------------------------------------------------------------------------------
      * PROPERTIES
      *--------------------------------------------------------------------------------------------*/
@@ -46,6 +77,9 @@ public class AveksaAdapter implements BridgeAdapter {
     /** Defines the adapter display name */
     public static final String NAME = "Aveksa Bridge";
 
+    /** The most query templates and command urls kept compiled. */
+    private static final int MAX_COMPILED_TEMPLATES = 1000;
+
     /** Defines the logger */
     protected static final org.slf4j.Logger logger = LoggerFactory.getLogger(AveksaAdapter.class);
 
@@ -68,18 +102,140 @@ public class AveksaAdapter implements BridgeAdapter {
         public static final String PROPERTY_USERNAME = "Username";
         public static final String PROPERTY_PASSWORD = "Password";
         public static final String PROPERTY_URL = "Aveksa Url";
+        public static final String PROPERTY_MAX_CONNECTIONS = "Max Connections";
+        public static final String PROPERTY_MAX_CONNECTIONS_PER_ROUTE = "Max Connections Per Route";
+        public static final String PROPERTY_CONNECT_TIMEOUT = "Connect Timeout (ms)";
+        public static final String PROPERTY_SOCKET_TIMEOUT = "Socket Timeout (ms)";
+        public static final String PROPERTY_CONNECTION_REQUEST_TIMEOUT = "Connection Request Timeout (ms)";
+        public static final String PROPERTY_IDLE_CONNECTION_TIMEOUT = "Idle Connection Timeout (s)";
+        public static final String PROPERTY_COUNT_RETURN_COLUMN = "Count Return Column";
+        public static final String PROPERTY_TOKEN_LIFETIME = "Token Lifetime (s)";
+        public static final String PROPERTY_CACHE_TTL = "Cache Time To Live (s)";
+        public static final String PROPERTY_CACHE_STALE_WINDOW = "Cache Stale Window (s)";
+        public static final String PROPERTY_CACHE_FALLBACK_WINDOW = "Cache Fallback Window (s)";
+        public static final String PROPERTY_CACHE_MAX_ENTRIES = "Cache Max Entries";
+        public static final String PROPERTY_CACHE_MAX_BYTES = "Cache Max Bytes";
+        public static final String PROPERTY_CACHE_STRUCTURE_SETTINGS = "Cache Structure Settings";
+        public static final String PROPERTY_CACHE_SNAPSHOT_FILE = "Cache Snapshot File";
+        public static final String PROPERTY_CACHE_SNAPSHOT_INTERVAL = "Cache Snapshot Interval (s)";
+        public static final String PROPERTY_SEARCH_WINDOW_TTL = "Search Window Time To Live (s)";
+        public static final String PROPERTY_MAX_CONCURRENT_REQUESTS = "Max Concurrent Requests";
+        public static final String PROPERTY_MAX_QUEUED_REQUESTS = "Max Queued Requests";
+        public static final String PROPERTY_REQUEST_DEADLINE = "Request Deadline (ms)";
+        public static final String PROPERTY_MINIMUM_REQUEST_DEADLINE = "Minimum Request Deadline (ms)";
+        public static final String PROPERTY_ADAPTIVE_DEADLINE_MULTIPLE = "Adaptive Deadline Multiple";
+        public static final String PROPERTY_HEDGE_PERCENTILE = "Hedge Percentile";
+        public static final String PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE = "Circuit Breaker Failure Rate (%)";
+        public static final String PROPERTY_CIRCUIT_BREAKER_MINIMUM_REQUESTS = "Circuit Breaker Minimum Requests";
+        public static final String PROPERTY_CIRCUIT_BREAKER_OPEN_TIME = "Circuit Breaker Open Time (s)";
+        public static final String PROPERTY_MIRROR_STRUCTURES = "Mirror Structures";
+        public static final String PROPERTY_MIRROR_SYNC_INTERVAL = "Mirror Sync Interval (s)";
+        public static final String PROPERTY_MIRROR_SYNC_DEADLINE = "Mirror Sync Deadline (s)";
+        public static final String PROPERTY_METRICS_REGISTRY = "Metrics Registry";
+        public static final String PROPERTY_RESPONSE_COMPRESSION = "Response Compression";
+        public static final String PROPERTY_WARMUP_CONNECTIONS = "Warm-up Connections";
+        public static final String PROPERTY_WARMUP_QUERIES = "Warm-up Queries";
     }
 
     private final ConfigurablePropertyMap properties = new ConfigurablePropertyMap(
         new ConfigurableProperty(Properties.PROPERTY_USERNAME).setIsRequired(true),
         new ConfigurableProperty(Properties.PROPERTY_PASSWORD).setIsRequired(true).setIsSensitive(true),
         new ConfigurableProperty(Properties.PROPERTY_URL).setIsRequired(true)
+            .setDescription("The Aveksa url, or a comma separated list of the urls of several Aveksa nodes to spread requests across."),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_CONNECTIONS).setValue("20")
+            .setDescription("The maximum number of pooled connections to Aveksa."),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE).setValue("20")
+            .setDescription("The maximum number of pooled connections to a single Aveksa host."),
+        new ConfigurableProperty(Properties.PROPERTY_CONNECT_TIMEOUT).setValue("10000")
+            .setDescription("Milliseconds to wait while opening a connection to Aveksa (0 waits forever)."),
+        new ConfigurableProperty(Properties.PROPERTY_SOCKET_TIMEOUT).setValue("60000")
+            .setDescription("Milliseconds to wait for data from Aveksa once connected (0 waits forever)."),
+        new ConfigurableProperty(Properties.PROPERTY_CONNECTION_REQUEST_TIMEOUT).setValue("10000")
+            .setDescription("Milliseconds to wait for a free pooled connection (0 waits forever)."),
+        new ConfigurableProperty(Properties.PROPERTY_IDLE_CONNECTION_TIMEOUT).setValue("60")
+            .setDescription("Seconds an unused connection is kept alive before it is closed."),
+        new ConfigurableProperty(Properties.PROPERTY_COUNT_RETURN_COLUMN)
+            .setDescription("A column every structure returns. Counts request only this column when the bridge request names no fields."),
+        new ConfigurableProperty(Properties.PROPERTY_TOKEN_LIFETIME).setValue("1800")
+            .setDescription("Seconds an Aveksa login stays valid. The token is refreshed shortly before then (0 refreshes only after a 401)."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_TTL).setValue("0")
+            .setDescription("Seconds a result is cached for each structure (0 disables the cache)."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_STALE_WINDOW).setValue("0")
+            .setDescription("Seconds an expired result is still returned while it is refreshed in the background."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_FALLBACK_WINDOW).setValue("3600")
+            .setDescription("Seconds past the stale window an expired result is still returned when Aveksa fails or the circuit breaker is open (0 disables)."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_MAX_ENTRIES).setValue("1000")
+            .setDescription("The maximum number of cached results for each structure."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_MAX_BYTES).setValue("10485760")
+            .setDescription("The approximate maximum memory used by the cached results of each structure."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_STRUCTURE_SETTINGS)
+            .setDescription("Per structure cache settings, such as 'Users:ttl=600,stale=60,fallback=3600,entries=5000,bytes=52428800;Groups:ttl=0'."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_SNAPSHOT_FILE)
+            .setDescription("A file the cached results are saved to and restored from on startup, readable only by the bridgehub user since it holds Aveksa data (blank disables)."),
+        new ConfigurableProperty(Properties.PROPERTY_CACHE_SNAPSHOT_INTERVAL).setValue("300")
+            .setDescription("Seconds between saves of the cached results to the snapshot file, which is also saved when the adapter stops."),
+        new ConfigurableProperty(Properties.PROPERTY_SEARCH_WINDOW_TTL).setValue("60")
+            .setDescription("Seconds the sorted rows of a paged or ordered search are kept for fetching further pages (0 disables)."),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_CONCURRENT_REQUESTS).setValue("20")
+            .setDescription("The maximum number of requests sent to each Aveksa node at the same time."),
+        new ConfigurableProperty(Properties.PROPERTY_MAX_QUEUED_REQUESTS).setValue("100")
+            .setDescription("The maximum number of requests waiting to be sent to each Aveksa node, further requests fail immediately."),
+        new ConfigurableProperty(Properties.PROPERTY_REQUEST_DEADLINE).setValue("60000")
+            .setDescription("Milliseconds a bridge call waits for Aveksa, including any queueing and login, before it is abandoned (0 waits forever)."),
+        new ConfigurableProperty(Properties.PROPERTY_MINIMUM_REQUEST_DEADLINE).setValue("2000")
+            .setDescription("The shortest deadline the adaptive deadline may set, in milliseconds."),
+        new ConfigurableProperty(Properties.PROPERTY_ADAPTIVE_DEADLINE_MULTIPLE).setValue("3")
+            .setDescription("Each operation on each structure waits this multiple of its p99 latency over the last minute, between the minimum and the request deadline (0 always waits the request deadline)."),
+        new ConfigurableProperty(Properties.PROPERTY_HEDGE_PERCENTILE).setValue("0")
+            .setDescription("With several Aveksa urls, a find request not answered within this percentile of recent response times, such as 95, is also sent to a second node and the first answer is used (0 disables)."),
+        new ConfigurableProperty(Properties.PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE).setValue("50")
+            .setDescription("The percentage of failed or timed out requests within ten seconds that pauses requests to Aveksa (0 disables)."),
+        new ConfigurableProperty(Properties.PROPERTY_CIRCUIT_BREAKER_MINIMUM_REQUESTS).setValue("20")
+            .setDescription("The requests needed within ten seconds before their failure rate can pause requests to Aveksa."),
+        new ConfigurableProperty(Properties.PROPERTY_CIRCUIT_BREAKER_OPEN_TIME).setValue("30")
+            .setDescription("Seconds requests to Aveksa are paused, failing or returning cached results straight away, before a trial request is sent."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_STRUCTURES)
+            .setDescription("A comma separated list of rarely changing structures that are copied into memory and queried locally, each followed by the attributes Aveksa matches exactly, such as ids, that may be filtered on locally, such as 'Users[id,employeeId],Groups[id]'. Queries on other attributes are sent to Aveksa."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_SYNC_INTERVAL).setValue("900")
+            .setDescription("Seconds between full syncs of each mirrored structure."),
+        new ConfigurableProperty(Properties.PROPERTY_MIRROR_SYNC_DEADLINE).setValue("600")
+            .setDescription("Seconds a full sync of a mirrored structure may take before it is abandoned (0 waits forever)."),
+        new ConfigurableProperty(Properties.PROPERTY_METRICS_REGISTRY).setValue(AveksaJmxMetricsRegistry.class.getName())
+            .setDescription("The AveksaMetricsRegistry class that publishes the adapter metrics, JMX by default (blank disables publishing)."),
+        new ConfigurableProperty(Properties.PROPERTY_RESPONSE_COMPRESSION).setValue("gzip,deflate")
+            .setDescription("The encodings Aveksa may compress responses with, any of gzip, x-gzip, deflate and identity, sent as the Accept-Encoding header (blank asks for uncompressed responses)."),
+        new ConfigurableProperty(Properties.PROPERTY_WARMUP_CONNECTIONS).setValue("2")
+            .setDescription("The connections opened to each Aveksa node in the background at startup, at most the max connections per route."),
+        new ConfigurableProperty(Properties.PROPERTY_WARMUP_QUERIES)
+            .setDescription("Searches run in the background at startup to fill the cache, such as 'Users[id,name]:status=Active;Groups:name=Administrators'.")
     );
 
     private String username;
     private String password;
-    private URL url;
-    private String token;
+    private AveksaEndpointSelector endpointSelector;
+    private String countReturnColumn;
+    private CloseableHttpClient client;
+    private AveksaResultCache cache;
+    private AveksaResultCache windowCache;
+    private AveksaCacheSnapshot cacheSnapshot;
+    private final AveksaRequestCoalescer coalescer = new AveksaRequestCoalescer();
+    private long requestDeadline;
+    private long minimumDeadline;
+    private int deadlineMultiple;
+    private int hedgePercentile;
+    private ScheduledExecutorService hedgeScheduler;
+    private AveksaCircuitBreaker circuitBreaker;
+    private String acceptEncoding;
+    private AveksaMirror mirror;
+    private long syncDeadline;
+    private AveksaWarmup warmup;
+    private AveksaMetrics metrics;
+    private AveksaMetricsRegistry metricsRegistry;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private final ConcurrentHashMap<String,AveksaQueryTemplate> queryTemplates =
+        new ConcurrentHashMap<String,AveksaQueryTemplate>();
+    private final ConcurrentHashMap<String,ConcurrentHashMap<List<String>,String>> commandUrlPrefixes =
+        new ConcurrentHashMap<String,ConcurrentHashMap<List<String>,String>>();
 
     /*---------------------------------------------------------------------------------------------
      * SETUP METHODS
@@ -87,13 +243,219 @@ public class AveksaAdapter implements BridgeAdapter {
 
     @Override
     public void initialize() throws BridgeError {
+        // Every property is read and checked before anything is started, so an invalid value
+        // leaves no threads running and no metrics registered
         this.username = properties.getValue(Properties.PROPERTY_USERNAME);
         this.password = properties.getValue(Properties.PROPERTY_PASSWORD);
+        this.countReturnColumn = properties.getValue(Properties.PROPERTY_COUNT_RETURN_COLUMN);
+        List<AveksaEndpoint> endpoints = parseEndpoints(properties.getValue(Properties.PROPERTY_URL));
+        int maxConnections = getIntegerProperty(Properties.PROPERTY_MAX_CONNECTIONS);
+        if (maxConnections < 1) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_MAX_CONNECTIONS + "' must be at least 1.");
+        }
+        int maxConnectionsPerRoute = getIntegerProperty(Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE);
+        if (maxConnectionsPerRoute < 1) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE + "' must be at least 1.");
+        }
+        int connectTimeout = getIntegerProperty(Properties.PROPERTY_CONNECT_TIMEOUT);
+        int socketTimeout = getIntegerProperty(Properties.PROPERTY_SOCKET_TIMEOUT);
+        int connectionRequestTimeout = getIntegerProperty(Properties.PROPERTY_CONNECTION_REQUEST_TIMEOUT);
+        int idleTimeout = getIntegerProperty(Properties.PROPERTY_IDLE_CONNECTION_TIMEOUT);
+        int maxConcurrentRequests = getIntegerProperty(Properties.PROPERTY_MAX_CONCURRENT_REQUESTS);
+        if (maxConcurrentRequests < 1) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_MAX_CONCURRENT_REQUESTS + "' must be at least 1.");
+        }
+        int maxQueuedRequests = getIntegerProperty(Properties.PROPERTY_MAX_QUEUED_REQUESTS);
+        this.requestDeadline = getLongProperty(Properties.PROPERTY_REQUEST_DEADLINE);
+        this.minimumDeadline = getLongProperty(Properties.PROPERTY_MINIMUM_REQUEST_DEADLINE);
+        this.deadlineMultiple = getIntegerProperty(Properties.PROPERTY_ADAPTIVE_DEADLINE_MULTIPLE);
+        this.hedgePercentile = getIntegerProperty(Properties.PROPERTY_HEDGE_PERCENTILE);
+        if (this.hedgePercentile >= 100) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_HEDGE_PERCENTILE + "' must be less than 100.");
+        }
+        int failureRate = getIntegerProperty(Properties.PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE);
+        if (failureRate > 100) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_CIRCUIT_BREAKER_FAILURE_RATE + "' must be at most 100.");
+        }
+        int circuitBreakerMinimumRequests = getIntegerProperty(Properties.PROPERTY_CIRCUIT_BREAKER_MINIMUM_REQUESTS);
+        long circuitBreakerOpenTime = getLongProperty(Properties.PROPERTY_CIRCUIT_BREAKER_OPEN_TIME);
+        this.acceptEncoding = parseAcceptEncoding(properties.getValue(Properties.PROPERTY_RESPONSE_COMPRESSION));
+
+        AveksaResultCache.Settings cacheSettings = new AveksaResultCache.Settings(
+            getIntegerProperty(Properties.PROPERTY_CACHE_TTL),
+            getIntegerProperty(Properties.PROPERTY_CACHE_STALE_WINDOW),
+            getIntegerProperty(Properties.PROPERTY_CACHE_FALLBACK_WINDOW),
+            getIntegerProperty(Properties.PROPERTY_CACHE_MAX_ENTRIES),
+            getLongProperty(Properties.PROPERTY_CACHE_MAX_BYTES));
+        Map<String,AveksaResultCache.Settings> structureSettings = AveksaResultCache.parseStructureSettings(
+            properties.getValue(Properties.PROPERTY_CACHE_STRUCTURE_SETTINGS), cacheSettings,
+            Properties.PROPERTY_CACHE_STRUCTURE_SETTINGS);
+        AveksaResultCache.Settings windowSettings = new AveksaResultCache.Settings(
+            getIntegerProperty(Properties.PROPERTY_SEARCH_WINDOW_TTL), 0, 0,
+            getIntegerProperty(Properties.PROPERTY_CACHE_MAX_ENTRIES),
+            getLongProperty(Properties.PROPERTY_CACHE_MAX_BYTES));
+        String snapshotFile = properties.getValue(Properties.PROPERTY_CACHE_SNAPSHOT_FILE);
+        long snapshotInterval = 0;
+        if (snapshotFile != null && !snapshotFile.trim().isEmpty()) {
+            snapshotInterval = getLongProperty(Properties.PROPERTY_CACHE_SNAPSHOT_INTERVAL);
+            if (snapshotInterval < 1) {
+                throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_CACHE_SNAPSHOT_INTERVAL + "' must be at least 1.");
+            }
+        }
+        int tokenLifetime = getIntegerProperty(Properties.PROPERTY_TOKEN_LIFETIME);
+        int warmupConnections = getIntegerProperty(Properties.PROPERTY_WARMUP_CONNECTIONS);
+        if (warmupConnections > maxConnectionsPerRoute) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_WARMUP_CONNECTIONS + "' must be at most '"
+                + Properties.PROPERTY_MAX_CONNECTIONS_PER_ROUTE + "'.");
+        }
+        List<AveksaWarmup.Query> warmupQueries = AveksaWarmup.parseQueries(
+            properties.getValue(Properties.PROPERTY_WARMUP_QUERIES), Properties.PROPERTY_WARMUP_QUERIES);
+        Map<String,Set<String>> mirrorStructures = AveksaMirror.parseStructures(
+            properties.getValue(Properties.PROPERTY_MIRROR_STRUCTURES), Properties.PROPERTY_MIRROR_STRUCTURES);
+        long syncInterval = 0;
+        if (!mirrorStructures.isEmpty()) {
+            syncInterval = getLongProperty(Properties.PROPERTY_MIRROR_SYNC_INTERVAL);
+            if (syncInterval < 1) {
+                throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_MIRROR_SYNC_INTERVAL + "' must be at least 1.");
+            }
+            this.syncDeadline = TimeUnit.SECONDS.toMillis(getLongProperty(Properties.PROPERTY_MIRROR_SYNC_DEADLINE));
+        }
+
+        // Anything that still fails, such as loading the metrics registry class, stops what was started
         try {
-            this.url = new URL(properties.getValue(Properties.PROPERTY_URL));
-        } catch (MalformedURLException e) {
-            logger.error("Error Output: " + e.getMessage());
-            throw new BridgeError("Invalid URL: '" + properties.getValue(Properties.PROPERTY_URL) + "' is a malformed URL.", e);
+            this.endpointSelector = new AveksaEndpointSelector(endpoints);
+            StringBuilder endpointNames = new StringBuilder();
+            for (AveksaEndpoint endpoint : endpoints) {
+                if (endpointNames.length() > 0) {
+                    endpointNames.append(',');
+                }
+                endpointNames.append(endpoint.getName());
+            }
+            this.metrics = new AveksaMetrics(endpointNames.toString());
+            this.client = buildHttpClient(maxConnections, maxConnectionsPerRoute, connectTimeout, socketTimeout,
+                connectionRequestTimeout, idleTimeout);
+            // Each node has its own bulkhead, so requests piling up on a slow node leave the
+            // workers of the others free
+            for (AveksaEndpoint endpoint : endpoints) {
+                endpoint.setBulkhead(new AveksaBulkhead(endpoint.getName(), maxConcurrentRequests, maxQueuedRequests));
+            }
+            // A hedge goes to a second node, so there is nothing to hedge with a single url
+            if (this.hedgePercentile > 0 && endpoints.size() > 1) {
+                this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "aveksa-hedge");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            this.circuitBreaker = new AveksaCircuitBreaker(endpointNames.toString(), failureRate,
+                circuitBreakerMinimumRequests, circuitBreakerOpenTime);
+            this.metrics.setResources(this.connectionManager, endpoints, this.circuitBreaker);
+            this.metricsRegistry = createMetricsRegistry();
+
+            this.cache = new AveksaResultCache(cacheSettings, structureSettings);
+            this.windowCache = new AveksaResultCache(windowSettings, new HashMap<String,AveksaResultCache.Settings>());
+
+            // Every node issues its own tokens, so each one is logged in to separately
+            for (final AveksaEndpoint endpoint : endpoints) {
+                endpoint.setTokenManager(new AveksaTokenManager(new AveksaTokenManager.Authenticator() {
+                    @Override
+                    public String authenticate() throws BridgeError {
+                        return AveksaAdapter.this.authenticate(endpoint.getUrl(), username, password);
+                    }
+                }, tokenLifetime));
+            }
+
+            // Log in, open connections and prefetch in the background so startup is not held up.
+            // Aveksa being unavailable should not stop the adapter from starting either.
+            this.warmup = new AveksaWarmup(endpoints, this.connectionManager, warmupConnections, connectTimeout,
+                idleTimeout, warmupQueries,
+                new AveksaWarmup.Prefetcher() {
+                    @Override
+                    public void prefetch(AveksaWarmup.Query query) throws BridgeError {
+                        BridgeRequest request = new BridgeRequest();
+                        request.setStructure(query.getStructure());
+                        request.setFields(query.getFields());
+                        request.setQuery(query.getQuery());
+                        request.setParameters(new HashMap<String,String>());
+                        request.setMetadata(new HashMap<String,String>());
+                        search(request);
+                    }
+                }, this.metrics);
+            this.warmup.start();
+
+            if (!mirrorStructures.isEmpty()) {
+                this.mirror = new AveksaMirror(new AveksaMirror.Loader() {
+                    @Override
+                    public AveksaResult loadAll(String structure) throws BridgeError {
+                        return AveksaAdapter.this.loadStructure(structure);
+                    }
+                }, mirrorStructures, syncInterval);
+                this.mirror.start();
+            }
+
+            if (snapshotInterval > 0) {
+                // Results are only restored for the same Aveksa urls and user they were cached for
+                this.cacheSnapshot = new AveksaCacheSnapshot(new File(snapshotFile.trim()),
+                    properties.getValue(Properties.PROPERTY_URL) + " " + this.username, this.cache, snapshotInterval);
+                this.cacheSnapshot.start();
+            }
+        } catch (BridgeError e) {
+            destroy();
+            throw e;
+        } catch (RuntimeException e) {
+            destroy();
+            throw e;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.warmup != null) {
+            this.warmup.shutdown();
+        }
+        if (this.mirror != null) {
+            this.mirror.shutdown();
+        }
+        if (this.metricsRegistry != null) {
+            try {
+                this.metricsRegistry.unregister(this.metrics);
+            } catch (Exception e) {
+                logger.warn("Unable to unregister the Aveksa adapter metrics.", e);
+            }
+            this.metricsRegistry = null;
+        }
+        if (this.endpointSelector != null) {
+            for (AveksaEndpoint endpoint : this.endpointSelector.getEndpoints()) {
+                if (endpoint.getTokenManager() != null) {
+                    endpoint.getTokenManager().shutdown();
+                }
+                if (endpoint.getBulkhead() != null) {
+                    endpoint.getBulkhead().shutdown();
+                }
+            }
+        }
+        if (this.cacheSnapshot != null) {
+            this.cacheSnapshot.shutdown();
+        }
+        if (this.cache != null) {
+            this.cache.shutdown();
+        }
+        if (this.windowCache != null) {
+            this.windowCache.shutdown();
+        }
+        if (this.hedgeScheduler != null) {
+            this.hedgeScheduler.shutdownNow();
+        }
+        if (this.client != null) {
+            try {
+                this.client.close();
+            } catch (IOException e) {
+                logger.warn("Unable to close the Aveksa connection pool.", e);
+            }
+            this.client = null;
         }
     }
 
@@ -123,204 +485,554 @@ public class AveksaAdapter implements BridgeAdapter {
 
     @Override
     public Count count(BridgeRequest request) throws BridgeError {
-        AveksaQualificationParser parser = new AveksaQualificationParser();
-        String filterParameters = parser.parse(request.getQuery(),request.getParameters());
-
-        String command = "find" + request.getStructure();
-
-        StringBuilder getUrl = new StringBuilder();
-        getUrl.append(this.url.toString());
-        getUrl.append("/aveksa/command.submit?cmd=");
-        getUrl.append(command);
-        getUrl.append("&format=json");
-        if (!filterParameters.equals("*")) {
-            getUrl.append("&").append(filterParameters);
-        }
-        // Possibly add sorting and possibly pagination data later on
-
-//        // Getting a different httpClient that will work with all SSL Certificates (for use in dev environments)
-//        HttpClient client;
-//        try {
-//            client = getTestingHttpClient();
-//        } catch (Exception e) {
-//            throw new BridgeError(e);
-//        }
-        HttpClient client = HttpClients.createDefault();
-        System.out.println(getUrl.toString() + "&" + this.token);
-        logger.debug(getUrl.toString() + "&" + this.token);
-        HttpGet get = new HttpGet(getUrl.toString() + "&" + this.token);
-
-        String output = "";
-        HttpResponse response;
+        long start = System.nanoTime();
+        Count count = null;
         try {
-            response = client.execute(get);
-            // If the token is expired, try refreshing and doing the call again before throwing an exception
-            if (response.getStatusLine().getStatusCode() == 401) {
-                EntityUtils.consume(response.getEntity());
-                this.token = authenticate(this.url.toString(),this.username,this.password);
-                HttpGet secondGet = new HttpGet(getUrl.toString() + "&" + this.token);
-                response = client.execute(secondGet);
-            }
-            output = EntityUtils.toString(response.getEntity());
-        } catch (Exception e) {
-            throw new BridgeError(e);
+            count = countRecords(request);
+            return count;
+        } finally {
+            this.metrics.get(AveksaMetrics.Operation.COUNT, request.getStructure())
+                .recordRequest(System.nanoTime() - start, 0, count == null);
         }
+    }
 
-        // If the response threw a 404 error with the command name as the reason,,
-        // throw and notify the user of the bad structure.
-        if (response.getStatusLine().getStatusCode() == 404) {
-            if (response.getStatusLine().getReasonPhrase().equals(command)) {
-                throw new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure because '" + command + "' is not a valid Aveksa information command.");
-            }
+    @Override
+    public Record retrieve(BridgeRequest request) throws BridgeError {
+        long start = System.nanoTime();
+        Record record = null;
+        try {
+            record = retrieveRecord(request);
+            return record;
+        } finally {
+            this.metrics.get(AveksaMetrics.Operation.RETRIEVE, request.getStructure())
+                .recordRequest(System.nanoTime() - start, record == null || record.getRecord() == null ? 0 : 1, record == null);
+        }
+    }
+
+    @Override
+    public RecordList search(BridgeRequest request) throws BridgeError {
+        long start = System.nanoTime();
+        RecordList recordList = null;
+        try {
+            recordList = searchRecords(request);
+            return recordList;
+        } finally {
+            this.metrics.get(AveksaMetrics.Operation.SEARCH, request.getStructure())
+                .recordRequest(System.nanoTime() - start, recordList == null ? 0 : recordList.getRecords().size(), recordList == null);
         }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private Count countRecords(final BridgeRequest request) throws BridgeError {
+        final String filterParameters = resolveFilter(request);
 
-        JSONObject jsonObj = (JSONObject)JSONValue.parse(output);
-        JSONArray structureList = (JSONArray)jsonObj.get(command);
+        // Mirrored structures are counted locally when the filter can be evaluated
+        AveksaResult mirrored = queryMirror(request, filterParameters, Collections.<String>emptyList());
+        if (mirrored != null) {
+            return new Count(Long.valueOf(mirrored.getCount()));
+        }
+
+        final String command = "find" + request.getStructure();
+
+        // Ask for a single column so Aveksa sends as little as possible for each counted row
+        final String countUrl = buildCommandUrl(command, getCountReturnColumns(request), filterParameters);
+
+        // A cached search over the same filter answers the count without calling Aveksa
+        AveksaResult result = this.cache.getCount(request.getStructure(), filterParameters,
+            this.coalescer.coalesce("count " + countUrl, new AveksaResultCache.Loader() {
+                @Override
+                public AveksaResult load() throws BridgeError {
+                    // Scan the response for the Total or the number of rows without building any of them
+                    AveksaCountScanner countScanner = new AveksaCountScanner(command);
+                    executeCommand(request, AveksaMetrics.Operation.COUNT, command, filterParameters, countUrl, countScanner);
+                    return AveksaResult.ofCount(countScanner.getCount());
+                }
+            }));
 
         //Return the response
-        return new Count(Long.valueOf(structureList.size()));
+        return new Count(Long.valueOf(result.getCount()));
     }
 
-    @Override
-    public Record retrieve(BridgeRequest request) throws BridgeError {
-        AveksaQualificationParser parser = new AveksaQualificationParser();
-        String filterParameters = parser.parse(request.getQuery(),request.getParameters());
+    private Record retrieveRecord(final BridgeRequest request) throws BridgeError {
+        final String filterParameters = resolveFilter(request);
+
+        final String command = "find" + request.getStructure();
+        final String retrieveUrl = buildCommandUrl(command, request.getFields(), filterParameters);
+
+        AveksaResult result = queryMirror(request, filterParameters, request.getFields());
+        if (result == null) {
+            result = this.cache.getSingle(request.getStructure(), filterParameters, request.getFields(),
+                this.coalescer.coalesce("retrieve " + retrieveUrl, new AveksaResultCache.Loader() {
+                    @Override
+                    public AveksaResult load() throws BridgeError {
+                        // Only a single match is expected, so stop parsing as soon as a second row is seen
+                        AveksaResponseParser responseParser = new AveksaResponseParser(command, request.getFields(), 1);
+                        executeCommand(request, AveksaMetrics.Operation.RETRIEVE, command, filterParameters, retrieveUrl, responseParser);
+                        return responseParser.getResult();
+                    }
+                }));
+        }
+
+        if (result.getRowCount() > 1) {
+            throw new BridgeError("Multiple results matched an expected single match query");
+        }
+
+        Record record;
+        if (result.getRowCount() == 0) {
+            record = new Record(null);
+        } else {
+            record = result.toRecord(request.getFields() == null ? result.getFields() : request.getFields(), 0);
+        }
+
+        // Returning the response
+        return record;
+    }
+
+    private RecordList searchRecords(final BridgeRequest request) throws BridgeError {
+        final String filterParameters = resolveFilter(request);
+
+        final String command = "find" + request.getStructure();
+
+        // Aveksa find commands can not sort or page, so the bridge does both. Columns that are
+        // only needed for sorting are requested along with the bridge request fields.
         List<String> fields = request.getFields();
+        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
+        int pageSize = Integer.parseInt(metadata.get("pageSize"));
+        int offset = Integer.parseInt(metadata.get("offset"));
+        // A pageNumber of 0 is normalized to a negative offset, which would read before the first row
+        if (pageSize < 0 || offset < 0) {
+            throw new BridgeError("Invalid Metadata: the page size and offset must not be negative but were "
+                + pageSize + " and " + offset + ".");
+        }
+        String order = request.getMetadata("order");
+        final Map<String,String> sortOrder = order == null || order.trim().isEmpty() ? null : BridgeUtils.parseOrder(order);
+        final List<String> queryFields = getQueryFields(fields, sortOrder);
+
+        final String searchUrl = buildCommandUrl(command, queryFields, filterParameters);
+        AveksaResult result;
+        if (sortOrder == null && pageSize == 0) {
+            result = findRows(request, command, filterParameters, queryFields, searchUrl);
+        } else {
+            // Keep the sorted rows in the short lived window cache so that paging through them
+            // does not fetch and sort everything again for every page
+            result = this.windowCache.getSorted(request.getStructure(), filterParameters, queryFields, order, new AveksaResultCache.Loader() {
+                @Override
+                public AveksaResult load() throws BridgeError {
+                    AveksaResult rows = findRows(request, command, filterParameters, queryFields, searchUrl);
+                    return sortOrder == null ? rows : rows.sort(sortOrder);
+                }
+            });
+        }
+
+        int fromIndex = Math.min(offset, result.getRowCount());
+        int toIndex = pageSize > 0 ? Math.min(fromIndex + pageSize, result.getRowCount()) : result.getRowCount();
 
-        String returnColumns = request.getFieldString();
-        String command = "find" + request.getStructure();
-
-        StringBuilder getUrl = new StringBuilder();
-        getUrl.append(this.url.toString());
-        getUrl.append("/aveksa/command.submit?cmd=");
-        getUrl.append(command);
-        getUrl.append("&format=json");
-        getUrl.append("&returnColumns=").append(returnColumns);
-        if (!filterParameters.equals("*")) {
-            getUrl.append("&").append(filterParameters);
-        }
-        // Possibly add sorting and possibly pagination data later on
-        getUrl.append("&").append(this.token);
-
-//        //Getting a different httpClient that will work with all SSL Certificates (for use in dev environments)
-//        HttpClient client;
-//        try {
-//            client = getTestingHttpClient();
-//        } catch (Exception e) {
-//            throw new BridgeError(e);
-//        }
-        HttpClient client = HttpClients.createDefault();
-        HttpGet get = new HttpGet(getUrl.toString());
-
-        String output = "";
-        HttpResponse response;
+        // Sort only columns are left out of the records, which are built from the columns lazily
+        List<String> recordFields = fields == null ? result.getFields() : fields;
+        List<Record> records = result.toRecords(recordFields, fromIndex, toIndex);
+
+        // Building the output metadata
+        metadata.put("size", String.valueOf(records.size()));
+        metadata.put("count", String.valueOf(result.getCount()));
+
+        // Returning the response
+        return new RecordList(recordFields, records, metadata);
+    }
+
+    /**
+     * Resolves the bridge query into the filter parameters of the command url, using the
+     * compiled template of the query. An empty query resolves to "*", which sends no filter.
+     */
+    String resolveFilter(BridgeRequest request) throws BridgeError {
+        String query = request.getQuery() == null ? "" : request.getQuery();
+        AveksaQueryTemplate template = this.queryTemplates.get(query);
+        if (template == null) {
+            template = AveksaQueryTemplate.compile(query);
+            // Queries come from bridge models, so there are few of them, but do not let
+            // unexpected dynamic queries grow the map without bound
+            if (this.queryTemplates.size() < MAX_COMPILED_TEMPLATES) {
+                this.queryTemplates.putIfAbsent(query, template);
+            }
+        }
+        String filterParameters = template.resolve(request.getParameters());
+        return filterParameters.isEmpty() ? "*" : filterParameters;
+    }
+
+    /**
+     * Builds the path and query string of an Aveksa information command, without the url of the
+     * node it is sent to or the login token. The part before the filter is built once for each
+     * command and set of columns.
+     *
+     * @param returnColumns the columns to return, or null for every column
+     * @param filterParameters the resolved qualification, or "*" for no filter
+     */
+    String buildCommandUrl(String command, List<String> returnColumns, String filterParameters) {
+        ConcurrentHashMap<List<String>,String> commandUrls = this.commandUrlPrefixes.get(command);
+        if (commandUrls == null) {
+            commandUrls = new ConcurrentHashMap<List<String>,String>();
+            ConcurrentHashMap<List<String>,String> existing = this.commandUrlPrefixes.putIfAbsent(command, commandUrls);
+            if (existing != null) {
+                commandUrls = existing;
+            }
+        }
+        List<String> columnsKey = returnColumns == null ? Collections.<String>emptyList() : returnColumns;
+        String prefix = commandUrls.get(columnsKey);
+        if (prefix == null) {
+            StringBuilder getUrl = new StringBuilder();
+            getUrl.append("/aveksa/command.submit?cmd=");
+            getUrl.append(AveksaQueryTemplate.encodeValue(command));
+            getUrl.append("&format=json");
+            if (returnColumns != null) {
+                getUrl.append("&returnColumns=");
+                for (int i = 0; i < returnColumns.size(); i++) {
+                    if (i > 0) {
+                        getUrl.append(",");
+                    }
+                    getUrl.append(AveksaQueryTemplate.encodeValue(returnColumns.get(i)));
+                }
+            }
+            prefix = getUrl.toString();
+            if (commandUrls.size() < MAX_COMPILED_TEMPLATES) {
+                // Copy the key, the caller's list may change after this call
+                commandUrls.putIfAbsent(new ArrayList<String>(columnsKey), prefix);
+            }
+        }
+        if (filterParameters.equals("*")) {
+            return prefix;
+        }
+        return new StringBuilder(prefix.length() + 1 + filterParameters.length())
+            .append(prefix).append('&').append(filterParameters).toString();
+    }
+
+    /**
+     * Executes an Aveksa command, waiting at most the deadline for it to complete. See sendCommand
+     * for how the response is handled. While the circuit breaker is open the command fails
+     * straight away, which lets the cache fall back to an expired result.
+     */
+    private void executeCommand(final BridgeRequest request, AveksaMetrics.Operation operation, final String command,
+        final String filterParameters, final String getUrl, final AveksaResponseHandler responseHandler) throws BridgeError {
+        final AveksaMetrics.OperationMetrics operationMetrics = this.metrics.get(operation, request.getStructure());
+        if (!this.circuitBreaker.allowRequest()) {
+            this.metrics.recordCircuitBreakerRejection();
+            throw new BridgeError("Aveksa Unavailable: too many recent requests to '" + this.metrics.getName()
+                + "' failed, requests are paused for up to " + this.circuitBreaker.getOpenSeconds() + " seconds.");
+        }
+        AveksaCommandCall call = new AveksaCommandCall();
+        long submitted = System.nanoTime();
         try {
-            response = client.execute(get);
-            // If the token is expired, try refreshing and doing the call again before throwing an exception
-            if (response.getStatusLine().getStatusCode() == 401) {
-                EntityUtils.consume(response.getEntity());
-                this.token = authenticate(this.url.toString(),this.username,this.password);
-                HttpGet secondGet = new HttpGet(getUrl.toString() + "&" + this.token);
-                response = client.execute(secondGet);
-            }
-            output = EntityUtils.toString(response.getEntity());
-        } catch (Exception e) {
-            throw new BridgeError(e);
+            sendCommand(request, command, filterParameters, getUrl, responseHandler, call, operationMetrics,
+                getDeadline(operationMetrics));
+        } finally {
+            // Errors Aveksa answered with, such as an invalid query, do not count against it
+            if (call.isCancelled() || call.isFailed()) {
+                this.circuitBreaker.recordFailure();
+            } else if (call.isStarted()) {
+                this.circuitBreaker.recordSuccess();
+            } else {
+                this.circuitBreaker.release();
+            }
+            // Commands a bulkhead rejected straight away say nothing about Aveksa's latency
+            if (call.isStarted() || call.isCancelled()) {
+                operationMetrics.recordCommand(System.nanoTime() - submitted);
+            }
         }
+    }
 
-        // If the response threw a 404 error with the command name as the reason,,
-        // throw and notify the user of the bad structure.
-        if (response.getStatusLine().getStatusCode() == 404) {
-            if (response.getStatusLine().getReasonPhrase().equals(command)) {
-                throw new BridgeError("Invalid Structure: '" + request.getStructure() + "' is not a valid structure because '" + command + "' is not a valid Aveksa information command.");
+    /**
+     * Returns how long a command may take: the deadline multiple of the recent p99 latency of the
+     * same operation on the same structure, kept between the minimum and the request deadline. The
+     * request deadline is used until enough commands have completed to go on.
+     */
+    private long getDeadline(AveksaMetrics.OperationMetrics operationMetrics) {
+        long p99 = this.deadlineMultiple == 0 ? -1 : operationMetrics.getRecentCommandMicros(99);
+        if (p99 < 0) {
+            return this.requestDeadline;
+        }
+        // Timed out commands are recorded at the deadline, so a deadline that is too short grows back
+        long deadline = Math.max(Math.max(1, this.minimumDeadline), TimeUnit.MICROSECONDS.toMillis(p99) * this.deadlineMultiple);
+        return this.requestDeadline > 0 ? Math.min(this.requestDeadline, deadline) : deadline;
+    }
+
+    /**
+     * Sends an Aveksa command to one of the nodes and streams a successful response body
+     * straight into the response handler, so the raw payload is never buffered as a String.
+     * Failed responses are turned into a BridgeError describing the bad structure or query.
+     *
+     * Each attempt runs on a worker of the bulkhead of the node it is sent to, and the calling
+     * thread waits for it until the deadline, after which the command is cancelled. A node whose
+     * bulkhead is full is skipped while another node is left to try. A node that can not be
+     * reached, times out or answers that it is unavailable is marked unhealthy and the command is
+     * sent to another node, until every node has been tried or the deadline has passed. Once a
+     * response body is being read the command is not retried.
+     *
+     * @param deadlineMillis how long the command may take, or 0 to wait until it completes
+     */
+    private void sendCommand(final BridgeRequest request, final String command, final String filterParameters,
+        final String commandUrl, final AveksaResponseHandler responseHandler, final AveksaCommandCall call,
+        final AveksaMetrics.OperationMetrics operationMetrics, long deadlineMillis) throws BridgeError {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        final List<AveksaEndpoint> tried = new ArrayList<AveksaEndpoint>(2);
+        boolean sent = false;
+        while (!sent) {
+            final AveksaEndpoint endpoint = this.endpointSelector.select(tried);
+            tried.add(endpoint);
+            // A node with no room for another request is passed over while there is another to try
+            if (endpoint.getBulkhead().isFull() && tried.size() < this.endpointSelector.getEndpoints().size()) {
+                continue;
             }
+            final long submitted = System.nanoTime();
+            // A failover only gets the time the earlier nodes left
+            long remainingMillis = deadlineMillis == 0 ? 0
+                : Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - submitted));
+            sent = endpoint.getBulkhead().execute(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws BridgeError {
+                    call.markStarted();
+                    operationMetrics.recordPhase(AveksaMetrics.Phase.QUEUE, System.nanoTime() - submitted);
+                    return sendToNode(endpoint, tried, request, command, filterParameters, commandUrl,
+                        responseHandler, call, operationMetrics);
+                }
+            }, call, remainingMillis);
         }
+    }
 
-        // Check to see if the response code message contains an 'Executing JDBC
-        // query failed'  to throw a specifc error for bad query, general unexpected error
-        // for anything else that falls under the 500 error code
-        if (response.getStatusLine().getStatusCode() != 200) {
-            if (response.getStatusLine().getReasonPhrase().contains("Executing JDBC query failed")) {
-                logger.error("Error Reason: " + response.getStatusLine().getReasonPhrase());
-                throw new BridgeError("Invalid Query: The query string '" + filterParameters + "' appears to include invalid elements.");
-            } else if (response.getStatusLine().getStatusCode() == 412) {
-                throw new BridgeError(response.getStatusLine().getReasonPhrase());
-            }  else {
-                logger.error("Error Reason: " + response.getStatusLine().getReasonPhrase());
-                throw new BridgeError("An unexpected error was encountered.");
+    /**
+     * Sends an Aveksa command to a node, reading the response if the node or a hedge answers it.
+     * When hedging is enabled, a copy of the first request is sent to a second node if it has
+     * not been answered within the hedge delay, and whichever is answered first is used. Returns
+     * false if the node is unavailable and the command should be sent to another node.
+     */
+    private boolean sendToNode(AveksaEndpoint endpoint, List<AveksaEndpoint> tried, BridgeRequest request,
+        String command, String filterParameters, String commandUrl, AveksaResponseHandler responseHandler,
+        AveksaCommandCall call, AveksaMetrics.OperationMetrics operationMetrics) throws BridgeError {
+        // Only the first request is hedged, a failover is already going to another node
+        AveksaHedge hedge = tried.size() == 1 ? scheduleHedge(tried, commandUrl, call, operationMetrics) : null;
+        endpoint.requestStarted();
+        long start = System.nanoTime();
+        HttpResponse response = null;
+        Exception failure = null;
+        try {
+            response = sendToEndpoint(endpoint, commandUrl, call, operationMetrics);
+        } catch (IOException e) {
+            failure = e;
+        } catch (BridgeError e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            endpoint.requestFinished();
+            if (hedge != null && !hedge.primaryResponded()) {
+                // Release the hedge that was answered first, nothing is going to read it
+                HttpResponse hedgeResponse = awaitHedge(hedge);
+                if (hedgeResponse != null) {
+                    EntityUtils.consumeQuietly(hedgeResponse.getEntity());
+                    hedge.getEndpoint().requestFinished();
+                }
             }
+            throw e;
         }
 
-        Record record = new Record(null);
-        JSONObject jsonOutput = (JSONObject)JSONValue.parse(output);
+        boolean hedgeWon = false;
+        if (hedge != null && (failure != null || !hedge.primaryResponded())) {
+            // The hedge was answered first, or this request failed while the hedge may still be answered
+            HttpResponse hedgeResponse = awaitHedge(hedge);
+            if (hedgeResponse != null) {
+                if (response != null) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+                endpoint.recordAbandoned(System.nanoTime() - start);
+                endpoint.requestFinished();
+                endpoint = hedge.getEndpoint();
+                response = hedgeResponse;
+                failure = null;
+                hedgeWon = true;
+            }
+        }
 
-        if (jsonOutput.size() > 1) {
-            throw new BridgeError("Multiple results matched an expected single match query");
-        } else if (jsonOutput.isEmpty()) {
-            record = new Record(null);
-        } else {
-            for (Object o : jsonOutput.keySet()) {
-                String key = o.toString();
-                if (!key.equals("Date") && !key.equals("Status") && !key.equals("ErrorCode") && !key.equals("Total")) {
-                    JSONObject deviceJson = (JSONObject)JSONValue.parse(jsonOutput.get(key).toString());
-                    Map<String,Object> recordMap = new LinkedHashMap<String,Object>();
-                    if (fields == null) { fields = new ArrayList( deviceJson.entrySet()); }
-                    for (String field : fields) {
-                        recordMap.put(field, deviceJson.get(field));
-                    }
-                    record = new Record(recordMap);
+        if (failure != null) {
+            endpoint.requestFinished();
+            // Only failures to reach the node, including its login, are failed over
+            boolean unreachable = failure instanceof IOException || failure.getCause() instanceof IOException;
+            if (unreachable && call.isCancelled()) {
+                endpoint.recordAbandoned(System.nanoTime() - start);
+            } else if (unreachable) {
+                endpoint.recordFailure();
+                if (canFailOver(endpoint, tried, failure)) {
+                    return false;
                 }
+                call.markFailed();
             }
+            throw failure instanceof BridgeError ? (BridgeError)failure : new BridgeError(failure);
         }
 
-        // Returning the response
-        return record;
+        if (!hedgeWon) {
+            if (isUnavailableStatus(response.getStatusLine().getStatusCode())) {
+                endpoint.recordFailure();
+                if (canFailOver(endpoint, tried, null)) {
+                    operationMetrics.recordStatus(response.getStatusLine().getStatusCode());
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    endpoint.requestFinished();
+                    return false;
+                }
+            } else {
+                endpoint.recordSuccess(System.nanoTime() - start);
+            }
+        }
+
+        try {
+            readResponse(request, command, filterParameters, response, responseHandler, call, operationMetrics);
+        } finally {
+            endpoint.requestFinished();
+        }
+        return true;
     }
 
-    @Override
-    public RecordList search(BridgeRequest request) throws BridgeError {
-        AveksaQualificationParser parser = new AveksaQualificationParser();
-        String filterParameters = parser.parse(request.getQuery(),request.getParameters());
-
-        String returnColumns = request.getFieldString();
-        String command = "find" + request.getStructure();
-
-        StringBuilder getUrl = new StringBuilder();
-        getUrl.append(this.url.toString());
-        getUrl.append("/aveksa/command.submit?cmd=");
-        getUrl.append(command);
-        getUrl.append("&format=json");
-        getUrl.append("&returnColumns=").append(returnColumns);
-        if (!filterParameters.equals("*")) {
-            getUrl.append("&").append(filterParameters);
-        }
-        // Possibly add sorting and possibly pagination data later on
-        getUrl.append("&").append(this.token);
-
-//        // Getting a different httpClient that will work with all SSL Certificates (for use in dev environments)
-//        HttpClient client;
-//        try {
-//            client = getTestingHttpClient();
-//        } catch (Exception e) {
-//            throw new BridgeError(e);
-//        }
-        HttpClient client = HttpClients.createDefault();
-        HttpGet get = new HttpGet(getUrl.toString());
-
-        String output = "";
-        HttpResponse response;
+    /**
+     * Schedules a hedge of the first request of a command to a second node after the hedge
+     * delay, the configured percentile of recent response waits. Returns null if hedging is
+     * disabled, too few responses have been seen yet or no other node is available.
+     */
+    private AveksaHedge scheduleHedge(List<AveksaEndpoint> tried, final String commandUrl,
+        final AveksaCommandCall call, final AveksaMetrics.OperationMetrics operationMetrics) {
+        if (this.hedgeScheduler == null) {
+            return null;
+        }
+        long delayMicros = operationMetrics.getRecentWaitMicros(this.hedgePercentile);
+        final AveksaEndpoint endpoint = delayMicros < 0 ? null : this.endpointSelector.select(tried);
+        if (endpoint == null || !endpoint.isAvailable()) {
+            return null;
+        }
+        final AveksaHedge hedge = new AveksaHedge(endpoint, call.newHedge());
+        final Runnable sendHedge = new Runnable() {
+            @Override
+            public void run() {
+                sendHedge(hedge, commandUrl, call, operationMetrics);
+            }
+        };
         try {
-            response = client.execute(get);
-            // If the token is expired, try refreshing and doing the call again before throwing an exception
-            if (response.getStatusLine().getStatusCode() == 401) {
-                EntityUtils.consume(response.getEntity());
-                this.token = authenticate(this.url.toString(),this.username,this.password);
-                HttpGet secondGet = new HttpGet(getUrl.toString() + "&" + this.token);
-                response = client.execute(secondGet);
-            }
-            output = EntityUtils.toString(response.getEntity());
-        } catch (Exception e) {
-            throw new BridgeError(e);
+            hedge.setScheduled(this.hedgeScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Hedges are only sent while a worker of the second node is free, so they never
+                    // delay other requests
+                    endpoint.getBulkhead().tryExecute(sendHedge);
+                }
+            }, delayMicros, TimeUnit.MICROSECONDS));
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        return hedge;
+    }
+
+    /**
+     * Sends a hedge request, handing its response to the thread waiting on the first request if
+     * it is answered first.
+     */
+    private void sendHedge(AveksaHedge hedge, String commandUrl, AveksaCommandCall primaryCall,
+        AveksaMetrics.OperationMetrics operationMetrics) {
+        if (!hedge.start()) {
+            return;
+        }
+        AveksaEndpoint endpoint = hedge.getEndpoint();
+        this.metrics.recordHedge();
+        endpoint.requestStarted();
+        long start = System.nanoTime();
+        boolean won = false;
+        try {
+            HttpResponse response = sendToEndpoint(endpoint, commandUrl, hedge.getCall(), operationMetrics);
+            if (isUnavailableStatus(response.getStatusLine().getStatusCode())) {
+                endpoint.recordFailure();
+                EntityUtils.consumeQuietly(response.getEntity());
+            } else {
+                endpoint.recordSuccess(System.nanoTime() - start);
+                won = hedge.hedgeResponded(response);
+                if (won) {
+                    this.metrics.recordHedgeWin();
+                    primaryCall.supersede();
+                } else {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+            }
+        } catch (IOException e) {
+            if (hedge.getCall().isCancelled()) {
+                endpoint.recordAbandoned(System.nanoTime() - start);
+            } else {
+                endpoint.recordFailure();
+                logger.debug("Hedge request to Aveksa at '" + endpoint.getName() + "' failed.", e);
+            }
+        } catch (BridgeError e) {
+            if (e.getCause() instanceof IOException && !hedge.getCall().isCancelled()) {
+                endpoint.recordFailure();
+            }
+            logger.debug("Hedge request to Aveksa at '" + endpoint.getName() + "' failed.", e);
+        } catch (RuntimeException e) {
+            logger.warn("Hedge request to Aveksa at '" + endpoint.getName() + "' failed.", e);
+        } finally {
+            // The winner's node stays busy until the first request's thread has read the body
+            if (!won) {
+                endpoint.requestFinished();
+                hedge.finish();
+            }
+        }
+    }
+
+    /**
+     * Waits for a hedge that has been sent, returning its response or null if it failed.
+     */
+    private static HttpResponse awaitHedge(AveksaHedge hedge) {
+        try {
+            return hedge.await();
+        } catch (InterruptedException e) {
+            // The deadline passed, which cancels the hedge along with the first request
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Sends an Aveksa command to a node with the node's login token. If the token has expired a
+     * new one is fetched, logging in at most once across concurrent callers, and the command is
+     * sent again.
+     */
+    private HttpResponse sendToEndpoint(AveksaEndpoint endpoint, String commandUrl, AveksaCommandCall call,
+        AveksaMetrics.OperationMetrics operationMetrics) throws BridgeError, IOException {
+        logger.debug(endpoint.getUrl() + commandUrl);
+        String token = endpoint.getTokenManager().getToken();
+        HttpResponse response = executeGet(buildRequestUrl(endpoint, commandUrl, token), call, operationMetrics);
+        if (response.getStatusLine().getStatusCode() == 401) {
+            operationMetrics.recordStatus(401);
+            EntityUtils.consume(response.getEntity());
+            this.metrics.recordReauthentication();
+            token = endpoint.getTokenManager().tokenRejected(token);
+            response = executeGet(buildRequestUrl(endpoint, commandUrl, token), call, operationMetrics);
+        }
+        return response;
+    }
+
+    /**
+     * Returns whether a command that failed on a node can be sent to another one, logging the
+     * failure either way.
+     */
+    private boolean canFailOver(AveksaEndpoint endpoint, List<AveksaEndpoint> tried, Exception cause) {
+        boolean untried = tried.size() < this.endpointSelector.getEndpoints().size();
+        if (untried) {
+            logger.warn("Aveksa at '" + endpoint.getName() + "' is unavailable, sending the request to another node.", cause);
+        } else if (this.endpointSelector.getEndpoints().size() > 1) {
+            logger.warn("Aveksa at '" + endpoint.getName() + "' is unavailable and no other node is left to try.", cause);
+        }
+        return untried;
+    }
+
+    /**
+     * Handles the response to a command, streaming a successful body into the response handler.
+     */
+    private void readResponse(BridgeRequest request, String command, String filterParameters,
+        HttpResponse response, AveksaResponseHandler responseHandler, AveksaCommandCall call,
+        AveksaMetrics.OperationMetrics operationMetrics) throws BridgeError {
+        if (response.getStatusLine().getStatusCode() != 200) {
+            operationMetrics.recordStatus(response.getStatusLine().getStatusCode());
+            EntityUtils.consumeQuietly(response.getEntity());
         }
 
         // If the response threw a 404 error with the command name as the reason,,
@@ -342,39 +1054,335 @@ public class AveksaAdapter implements BridgeAdapter {
                 throw new BridgeError(response.getStatusLine().getReasonPhrase());
             }  else {
                 logger.error("Error Reason: " + response.getStatusLine().getReasonPhrase());
+                if (response.getStatusLine().getStatusCode() >= 500) {
+                    call.markFailed();
+                }
                 throw new BridgeError("An unexpected error was encountered.");
             }
         }
 
-        JSONObject jsonObj = (JSONObject)JSONValue.parse(output);
-        JSONArray structureList = (JSONArray)jsonObj.get(command);
+        HttpEntity entity = response.getEntity();
+        Charset charset = ContentType.getOrDefault(entity).getCharset();
+        Header contentEncoding = entity.getContentEncoding();
+        try {
+            long start = System.nanoTime();
+            AveksaMeteredInputStream content = AveksaMeteredInputStream.wrap(entity.getContent());
+            AveksaMeteredInputStream decoded = null;
+            boolean compressed = false;
+            try {
+                // Compressed bodies are inflated as the parser reads them, never buffered whole
+                InputStream decodedContent = decode(content, contentEncoding);
+                compressed = decodedContent != content;
+                decoded = AveksaMeteredInputStream.wrapDecoded(decodedContent);
+                responseHandler.parse(decoded, charset == null ? Consts.UTF_8 : charset);
+            } finally {
+                // Reads are timed separately, the rest of the time went into inflating and parsing
+                operationMetrics.recordPhase(AveksaMetrics.Phase.TRANSFER, content.getReadNanos());
+                operationMetrics.recordPhase(AveksaMetrics.Phase.PARSE, System.nanoTime() - start - content.getReadNanos());
+                operationMetrics.recordResponseBytes(content.getBytes(),
+                    decoded == null ? 0 : decoded.getBytes(), compressed);
+                // Closing the stream releases the connection back to the pool
+                if (decoded != null) {
+                    decoded.close();
+                } else {
+                    content.close();
+                }
+            }
+        } catch (IOException e) {
+            call.markFailed();
+            throw new BridgeError(e);
+        } catch (ParseException e) {
+            throw new BridgeError("Unable to parse the '" + command + "' response returned by Aveksa.", e);
+        }
+    }
+
+    /**
+     * Returns the matching rows from the mirror, or null if the structure is not mirrored or the
+     * mirror can not answer the query.
+     */
+    private AveksaResult queryMirror(BridgeRequest request, String filterParameters, List<String> fields) {
+        return this.mirror == null ? null : this.mirror.query(request.getStructure(), filterParameters, fields);
+    }
 
-        List<String> fields = request.getFields();
-        ArrayList<Record> records = new ArrayList<Record>();
-        for (int i = 0; i < structureList.size(); i++) {
-            List record = new ArrayList();
-            JSONObject structureObj = (JSONObject)JSONValue.parse(structureList.get(i).toString());
-            for (String field : fields) {
-                record.add(structureObj.get(field));
+    /**
+     * Pulls every row and column of a structure for the mirror. A full pull can take far longer
+     * than a bridge call, so it has its own deadline and goes around the circuit breaker, which
+     * neither stops it nor counts it against Aveksa.
+     */
+    private AveksaResult loadStructure(String structure) throws BridgeError {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure(structure);
+        String command = "find" + structure;
+        AveksaMetrics.OperationMetrics operationMetrics = this.metrics.get(AveksaMetrics.Operation.SYNC, structure);
+
+        long start = System.nanoTime();
+        AveksaResult result = null;
+        try {
+            AveksaResponseParser responseParser = new AveksaResponseParser(command, null, -1);
+            sendCommand(request, command, "*", buildCommandUrl(command, null, "*"), responseParser,
+                new AveksaCommandCall(), operationMetrics, this.syncDeadline);
+            result = responseParser.getResult();
+            return result;
+        } finally {
+            operationMetrics.recordCommand(System.nanoTime() - start);
+            operationMetrics.recordRequest(System.nanoTime() - start, result == null ? 0 : result.getRowCount(), result == null);
+        }
+    }
+
+    /**
+     * Sends a GET, recording the time spent opening a connection, if one had to be opened, and
+     * waiting for the response headers.
+     */
+    private HttpResponse executeGet(String getUrl, AveksaCommandCall call,
+        AveksaMetrics.OperationMetrics operationMetrics) throws IOException {
+        operationMetrics.recordAveksaRequest();
+        this.metrics.takeConnectNanos();
+        long start = System.nanoTime();
+        HttpGet get = call.newGet(getUrl);
+        if (this.acceptEncoding != null) {
+            get.setHeader(HttpHeaders.ACCEPT_ENCODING, this.acceptEncoding);
+        }
+        HttpResponse response = this.client.execute(get);
+        long connectNanos = this.metrics.takeConnectNanos();
+        if (connectNanos > 0) {
+            operationMetrics.recordPhase(AveksaMetrics.Phase.CONNECT, connectNanos);
+        }
+        operationMetrics.recordPhase(AveksaMetrics.Phase.WAIT, System.nanoTime() - start - connectNanos);
+        return response;
+    }
+
+    /**
+     * Creates and registers the configured metrics registry, or returns null if there is none.
+     */
+    private AveksaMetricsRegistry createMetricsRegistry() throws BridgeError {
+        String className = properties.getValue(Properties.PROPERTY_METRICS_REGISTRY);
+        if (className == null || className.trim().isEmpty()) {
+            return null;
+        }
+        AveksaMetricsRegistry registry;
+        try {
+            registry = (AveksaMetricsRegistry)Class.forName(className.trim()).newInstance();
+        } catch (Exception e) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_METRICS_REGISTRY + "' must name an "
+                + AveksaMetricsRegistry.class.getSimpleName() + " class with a no argument constructor.", e);
+        }
+        // Monitoring being unavailable should not stop the adapter from starting
+        try {
+            registry.register(this.metrics);
+        } catch (Exception e) {
+            logger.warn("Unable to register the Aveksa adapter metrics with " + className + ".", e);
+            return null;
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the parsed rows of a search, from the result cache or from a single Aveksa request
+     * shared by all concurrent identical searches.
+     */
+    private AveksaResult findRows(final BridgeRequest request, final String command,
+        final String filterParameters, final List<String> queryFields, final String searchUrl) throws BridgeError {
+        AveksaResult mirrored = queryMirror(request, filterParameters, queryFields);
+        if (mirrored != null) {
+            return mirrored;
+        }
+        return this.cache.getRows(request.getStructure(), filterParameters, queryFields,
+            this.coalescer.coalesce("search " + searchUrl, new AveksaResultCache.Loader() {
+                @Override
+                public AveksaResult load() throws BridgeError {
+                    AveksaResponseParser responseParser = new AveksaResponseParser(command, queryFields, -1);
+                    executeCommand(request, AveksaMetrics.Operation.SEARCH, command, filterParameters, searchUrl, responseParser);
+                    return responseParser.getResult();
+                }
+            }));
+    }
+
+    /**
+     * Returns the columns to request for a search: the bridge request fields followed by any
+     * sort fields that are not among them.
+     */
+    private List<String> getQueryFields(List<String> fields, Map<String,String> sortOrder) {
+        if (fields == null || sortOrder == null || fields.containsAll(sortOrder.keySet())) {
+            return fields;
+        }
+        List<String> queryFields = new ArrayList<String>(fields);
+        for (String sortField : sortOrder.keySet()) {
+            if (!queryFields.contains(sortField)) {
+                queryFields.add(sortField);
             }
-            records.add((Record) record);
         }
+        return queryFields;
+    }
 
-        // Building the output metadata
-        Map<String,String> metadata = BridgeUtils.normalizePaginationMetadata(request.getMetadata());
-        metadata.put("pageSize", String.valueOf("0"));
-        metadata.put("pageNumber", String.valueOf("1"));
-        metadata.put("offset", String.valueOf("0"));
-        metadata.put("size", String.valueOf(records.size()));
-        metadata.put("count", metadata.get("size"));
+    /**
+     * Wraps a response body in a streaming decompressor for its Content-Encoding.
+     */
+    private static InputStream decode(InputStream content, Header contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return content;
+        }
+        String encoding = contentEncoding.getValue().trim().toLowerCase(Locale.ENGLISH);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            return new GZIPInputStream(content, 8192);
+        } else if (encoding.equals("deflate")) {
+            // Handles both zlib wrapped and raw deflate, servers send either
+            return new DeflateInputStream(content);
+        } else if (encoding.equals("identity") || encoding.isEmpty()) {
+            return content;
+        }
+        throw new IOException("Unsupported Content-Encoding '" + contentEncoding.getValue() + "' returned by Aveksa.");
+    }
 
-        // Returning the response
-        return new RecordList(fields, records, metadata);
+    /**
+     * Returns the Accept-Encoding header value for the configured response compression, or null
+     * to ask for uncompressed responses. Only encodings that decode() can inflate are allowed,
+     * since Aveksa answering with any other would fail every request.
+     */
+    private static String parseAcceptEncoding(String value) throws BridgeError {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        for (String coding : value.split(",")) {
+            // Drop any quality value, such as gzip;q=0.8
+            String name = coding.split(";", 2)[0].trim().toLowerCase(Locale.ENGLISH);
+            if (!name.equals("gzip") && !name.equals("x-gzip") && !name.equals("deflate") && !name.equals("identity")) {
+                throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_RESPONSE_COMPRESSION + "' contains the unsupported encoding '"
+                    + coding.trim() + "', only gzip, x-gzip, deflate and identity are supported.");
+            }
+        }
+        return value.trim();
     }
 
-    /*----------------------------------------------------------------------------------------------
-     * PRIVATE HELPER METHODS
-     *--------------------------------------------------------------------------------------------*/
+    /**
+     * Builds the url a command is sent to on a node, appending the login token which Aveksa
+     * returns as a query string parameter.
+     */
+    private static String buildRequestUrl(AveksaEndpoint endpoint, String commandUrl, String token) {
+        return new StringBuilder(endpoint.getUrl().length() + commandUrl.length() + 1 + token.length())
+            .append(endpoint.getUrl()).append(commandUrl).append('&').append(token).toString();
+    }
+
+    /**
+     * Returns whether a status means the node itself is unavailable, as opposed to a 500 for a
+     * command that would fail on any node.
+     */
+    private static boolean isUnavailableStatus(int status) {
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Parses the comma separated list of Aveksa urls into the nodes requests are sent to.
+     */
+    private static List<AveksaEndpoint> parseEndpoints(String value) throws BridgeError {
+        List<AveksaEndpoint> endpoints = new ArrayList<AveksaEndpoint>();
+        for (String endpointUrl : (value == null ? "" : value).split(",")) {
+            if (endpointUrl.trim().isEmpty()) {
+                continue;
+            }
+            URL url;
+            try {
+                url = new URL(endpointUrl.trim());
+            } catch (MalformedURLException e) {
+                logger.error("Error Output: " + e.getMessage());
+                throw new BridgeError("Invalid URL: '" + endpointUrl.trim() + "' is a malformed URL.", e);
+            }
+            endpoints.add(new AveksaEndpoint(url.toString(), url.getAuthority()));
+        }
+        if (endpoints.isEmpty()) {
+            throw new BridgeError("Invalid Property: '" + Properties.PROPERTY_URL + "' must hold at least one url.");
+        }
+        return endpoints;
+    }
+
+    /**
+     * Returns the single column a count should request: the first field of the bridge request,
+     * otherwise the configured count column, or null to let Aveksa return its default columns.
+     */
+    private List<String> getCountReturnColumns(BridgeRequest request) {
+        List<String> fields = request.getFields();
+        if (fields != null && !fields.isEmpty()) {
+            return Collections.singletonList(fields.get(0));
+        }
+        if (countReturnColumn != null && !countReturnColumn.trim().isEmpty()) {
+            return Collections.singletonList(countReturnColumn.trim());
+        }
+        return null;
+    }
+
+    /**
+     * Builds the adapter-scoped HttpClient. Connections are pooled and kept alive between bridge
+     * calls, and a background evictor closes connections that have expired or sat idle too long.
+     * To work with all SSL Certificates in dev environments, see getTestingHttpClient().
+     * The timeouts are in milliseconds, apart from the idle timeout which is in seconds.
+     */
+    private CloseableHttpClient buildHttpClient(int maxConnections, int maxConnectionsPerRoute, int connectTimeout,
+        int socketTimeout, int connectionRequestTimeout, final int idleTimeout) {
+
+        // Time every new connection, including the TLS handshake, for the connect metrics
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", new AveksaTimedSocketFactory(PlainConnectionSocketFactory.getSocketFactory(), this.metrics))
+            .register("https", new AveksaTimedLayeredSocketFactory(SSLConnectionSocketFactory.getSocketFactory(), this.metrics))
+            .build();
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        this.connectionManager = connectionManager;
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .build();
+
+        HttpClientBuilder builder = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            // Compression is negotiated and decoded by sendCommand, so the metrics see both sizes
+            .disableContentCompression()
+            .evictExpiredConnections();
+
+        // An idle timeout of 0 leaves connections open for as long as Aveksa allows
+        if (idleTimeout > 0) {
+            // Honor a Keep-Alive header sent by Aveksa, but never keep a connection longer than
+            // the configured idle timeout so the evictor and the server agree on when it is stale
+            builder.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                @Override
+                public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    long maximum = TimeUnit.SECONDS.toMillis(idleTimeout);
+                    return duration > 0 && duration < maximum ? duration : maximum;
+                }
+            });
+            builder.evictIdleConnections((long)idleTimeout, TimeUnit.SECONDS);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Returns the value of a numeric adapter property, throwing a BridgeError that names the
+     * property if it is not a non-negative whole number.
+     */
+    private int getIntegerProperty(String name) throws BridgeError {
+        long result = getLongProperty(name);
+        if (result > Integer.MAX_VALUE) {
+            throw new BridgeError("Invalid Property: '" + name + "' must be at most " + Integer.MAX_VALUE + ".");
+        }
+        return (int)result;
+    }
+
+    private long getLongProperty(String name) throws BridgeError {
+        String value = properties.getValue(name);
+        try {
+            long result = Long.parseLong(value.trim());
+            if (result < 0) {
+                throw new NumberFormatException();
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw new BridgeError("Invalid Property: '" + name + "' must be a non-negative whole number but was '" + value + "'.", e);
+        }
+    }
 
     /**
      * A helper method that authenticates the System Admin user
@@ -385,14 +1393,6 @@ public class AveksaAdapter implements BridgeAdapter {
         String token = "";
         String postUrl = url.toString() + "/aveksa/command.submit?cmd=loginUser";
 
-        // Getting a different httpClient that will work with all SSL Certificates (for use in dev environments)
-        // HttpClient client;
-        // try {
-        //     client = getTestingHttpClient();
-        // } catch (Exception e) {
-        //     throw new BridgeError(e);
-        // }
-        HttpClient client = HttpClients.createDefault();
         HttpPost post = new HttpPost(postUrl);
 
         String loginCreds = String.format("<username>%s</username><password>%s</password>",username,password);
@@ -405,17 +1405,19 @@ public class AveksaAdapter implements BridgeAdapter {
         }
 
         try {
-            HttpResponse response = client.execute(post);
+            HttpResponse response = this.client.execute(post);
             token = EntityUtils.toString(response.getEntity());
-        } catch (Exception e) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                logger.error("Error Reason: " + response.getStatusLine().getReasonPhrase());
+                throw new BridgeError("Unable to authenticate with Aveksa as '" + username + "'.");
+            }
+        } catch (IOException e) {
             throw new BridgeError(e);
         }
 
         // If the token was returned with a \n char, strip it from the token string
         token = token.replace("\n", "");
 
-        logger.debug(token);
-
         return token;
     }
 
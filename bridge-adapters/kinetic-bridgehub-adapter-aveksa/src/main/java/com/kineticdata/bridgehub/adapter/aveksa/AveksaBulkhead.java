@@ -0,0 +1,136 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.concurrent.Cancellable;
+
+/**
+ * Limits how many requests run against one Aveksa server at a time. Requests run on a fixed set
+ * of worker threads, a bounded number more may wait for a free worker and anything beyond that is
+ * rejected straight away rather than piling up behind a slow server. The calling thread waits for
+ * its request up to a deadline, after which the request is cancelled and the caller released.
+ */
+public class AveksaBulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param name identifies the Aveksa server in thread names and errors
+     * @param maxConcurrent the number of requests that may run at once
+     * @param maxQueued the number of requests that may wait for a free worker
+     */
+    public AveksaBulkhead(final String name, int maxConcurrent, int maxQueued) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        BlockingQueue<Runnable> queue = maxQueued > 0
+            ? new ArrayBlockingQueue<Runnable>(maxQueued)
+            : new SynchronousQueue<Runnable>();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS, queue,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "aveksa-request-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task on a worker and waits for its result.
+     *
+     * @param task the request to run
+     * @param cancellable aborts the request if the deadline passes
+     * @param deadlineMillis how long to wait for the task, or 0 to wait until it completes
+     */
+    public <T> T execute(Callable<T> task, Cancellable cancellable, long deadlineMillis) throws BridgeError {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new BridgeError("Aveksa Unavailable: " + maxConcurrent + " requests are already running against '"
+                + name + "' and " + maxQueued + " are waiting.");
+        }
+
+        try {
+            return deadlineMillis > 0 ? future.get(deadlineMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            cancel(future, cancellable);
+            throw new BridgeError("Aveksa Timeout: '" + name + "' did not respond within " + deadlineMillis + " ms.");
+        } catch (InterruptedException e) {
+            cancel(future, cancellable);
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for Aveksa.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BridgeError) {
+                throw (BridgeError)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new BridgeError(cause);
+        }
+    }
+
+    /**
+     * Runs the task on a worker if one is idle and nothing is waiting, returning false otherwise.
+     * Used for optional requests, such as hedges, that should never wait behind or take the place
+     * of regular requests.
+     */
+    public boolean tryExecute(Runnable task) {
+        if (executor.getActiveCount() + executor.getQueue().size() >= maxConcurrent) {
+            return false;
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /** Returns whether as many requests are running and waiting as are allowed. */
+    public boolean isFull() {
+        return executor.getActiveCount() + executor.getQueue().size() >= maxConcurrent + maxQueued;
+    }
+
+    /** Returns the number of requests currently running. */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /** Returns the number of requests waiting for a free worker. */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static void cancel(Future<?> future, Cancellable cancellable) {
+        // Blocking socket reads ignore interrupts, aborting the request closes its connection
+        future.cancel(true);
+        cancellable.cancel();
+    }
+}
@@ -0,0 +1,406 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the result cache to a file periodically and on shutdown, and restores it in the
+ * background on startup, so a restarted adapter answers hot queries from the cache straight away
+ * instead of sending them all to Aveksa at once. Restored entries keep the times they would have
+ * expired at, so fresh entries are returned as they are and expired ones are refreshed as usual.
+ *
+ * The file is a compact binary format: each column is written once with its repeated values
+ * written as references to their first occurrence. Nested objects and arrays are written as JSON
+ * and parsed again when they are restored. It is written to a temporary file that then
+ * replaces the snapshot, so a crash while saving leaves the previous snapshot in place. A
+ * snapshot written for different Aveksa urls or another user, or by an incompatible version, is
+ * ignored.
+ */
+public class AveksaCacheSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaCacheSnapshot.class);
+
+    private static final int MAGIC = 0x41564B53;
+    private static final int VERSION = 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The longest string read back, a longer length means the file is damaged. */
+    private static final int MAX_STRING_BYTES = 64 * 1024 * 1024;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int TRUE = 4;
+    private static final int FALSE = 5;
+    private static final int REFERENCE = 6;
+    private static final int OTHER = 7;
+    private static final int JSON = 8;
+
+    private final File file;
+    private final String source;
+    private final AveksaResultCache cache;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean restored;
+
+    /**
+     * @param file the snapshot file
+     * @param source identifies the Aveksa server and user the cached results came from
+     * @param cache the cache to save and restore
+     * @param intervalSeconds the delay between saves
+     */
+    public AveksaCacheSnapshot(File file, String source, AveksaResultCache cache, long intervalSeconds) {
+        this.file = file;
+        this.source = source;
+        this.cache = cache;
+        this.intervalSeconds = intervalSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "aveksa-cache-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Restores the snapshot in the background, then saves the cache on the interval.
+     */
+    public void start() {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                restore();
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic saves and saves the cache one last time, unless the snapshot had not
+     * finished restoring, in which case saving would lose the entries not restored yet.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (restored) {
+            save();
+        }
+    }
+
+    /**
+     * Restores the snapshot file into the cache, in the order the entries were saved.
+     */
+    void restore() {
+        long start = System.currentTimeMillis();
+        int count = 0;
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+            try {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    logger.info("Ignoring the Aveksa cache snapshot " + file + " written by another version.");
+                    return;
+                }
+                if (!source.equals(readString(input))) {
+                    logger.info("Ignoring the Aveksa cache snapshot " + file + " written for another Aveksa server or user.");
+                    return;
+                }
+                input.readLong();
+                while (input.readBoolean()) {
+                    String structure = readString(input);
+                    String key = readString(input);
+                    String filter = input.readBoolean() ? readString(input) : null;
+                    long expiresAt = input.readLong();
+                    long staleUntil = input.readLong();
+                    long fallbackUntil = input.readLong();
+                    AveksaResult result = readResult(input, file.length());
+                    cache.restore(structure, key, filter, result, expiresAt, staleUntil, fallbackUntil);
+                    count++;
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                }
+            } finally {
+                input.close();
+            }
+            logger.info("Restored " + count + " cached Aveksa results from " + file + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        } catch (FileNotFoundException e) {
+            logger.info("No Aveksa cache snapshot to restore at " + file + ".");
+        } catch (EOFException e) {
+            logger.warn("The Aveksa cache snapshot " + file + " is incomplete, restored the first " + count + " results.");
+        } catch (IOException e) {
+            logger.warn("Unable to restore the Aveksa cache snapshot " + file + ".", e);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to restore the Aveksa cache snapshot " + file + ".", e);
+        } finally {
+            // Whatever was in the file has been restored or can not be, so saving over it loses
+            // nothing, unless the restore was stopped part way through by a shutdown
+            if (!Thread.currentThread().isInterrupted()) {
+                restored = true;
+            }
+        }
+    }
+
+    /**
+     * Saves the cache to the snapshot file, replacing the previous snapshot once it is complete.
+     */
+    synchronized void save() {
+        long start = System.currentTimeMillis();
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream fileOutput = new FileOutputStream(temporary);
+            // The cached results are Aveksa data, keep them from other users of the machine
+            temporary.setReadable(false, false);
+            temporary.setReadable(true, true);
+            final int[] count = new int[1];
+            try {
+                final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, 65536));
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                writeString(output, source);
+                output.writeLong(start);
+                cache.visitEntries(new AveksaResultCache.EntryVisitor() {
+                    @Override
+                    public void visit(String structure, String key, String filter, AveksaResult result,
+                        long expiresAt, long staleUntil, long fallbackUntil) throws IOException {
+                        output.writeBoolean(true);
+                        writeString(output, structure);
+                        writeString(output, key);
+                        output.writeBoolean(filter != null);
+                        if (filter != null) {
+                            writeString(output, filter);
+                        }
+                        output.writeLong(expiresAt);
+                        output.writeLong(staleUntil);
+                        output.writeLong(fallbackUntil);
+                        writeResult(output, result);
+                        count[0]++;
+                    }
+                });
+                output.writeBoolean(false);
+                output.flush();
+                fileOutput.getFD().sync();
+            } finally {
+                fileOutput.close();
+            }
+            // Renaming over an existing file fails on some platforms
+            if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+                throw new IOException("Unable to replace " + file + " with " + temporary + ".");
+            }
+            logger.debug("Saved " + count[0] + " cached Aveksa results to " + file + " in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        } catch (IOException e) {
+            temporary.delete();
+            logger.warn("Unable to save the Aveksa cache snapshot " + file + ".", e);
+        } catch (RuntimeException e) {
+            temporary.delete();
+            logger.warn("Unable to save the Aveksa cache snapshot " + file + ".", e);
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static void writeResult(DataOutputStream output, AveksaResult result) throws IOException {
+        output.writeBoolean(result.hasRows());
+        if (!result.hasRows()) {
+            output.writeLong(result.getCount());
+            return;
+        }
+        List<String> fields = result.getFields();
+        writeVarInt(output, fields.size());
+        for (String field : fields) {
+            writeString(output, field);
+        }
+        int rowCount = result.getRowCount();
+        writeVarInt(output, rowCount);
+        // Rows are written in their sorted order, so a sorted result is restored already sorted
+        for (int column = 0; column < fields.size(); column++) {
+            Map<Object,Integer> written = new HashMap<Object,Integer>();
+            for (int row = 0; row < rowCount; row++) {
+                Object value = result.getValue(row, column);
+                Integer reference = value == null ? null : written.get(value);
+                if (reference != null) {
+                    output.writeByte(REFERENCE);
+                    writeVarInt(output, reference);
+                    continue;
+                }
+                if (value == null) {
+                    output.writeByte(NULL);
+                } else if (value instanceof Boolean) {
+                    output.writeByte((Boolean)value ? TRUE : FALSE);
+                } else if (value instanceof Long) {
+                    output.writeByte(LONG);
+                    output.writeLong((Long)value);
+                } else if (value instanceof Double) {
+                    output.writeByte(DOUBLE);
+                    output.writeDouble((Double)value);
+                } else if (value instanceof JSONObject) {
+                    output.writeByte(JSON);
+                    writeString(output, ((JSONObject)value).toJSONString());
+                } else if (value instanceof JSONArray) {
+                    output.writeByte(JSON);
+                    writeString(output, ((JSONArray)value).toJSONString());
+                } else {
+                    output.writeByte(value instanceof String ? STRING : OTHER);
+                    writeString(output, value.toString());
+                }
+                if (value != null) {
+                    written.put(value, written.size());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a result from a file of the given length. Every field and value takes at least a byte,
+     * so a result with more of them than the file has bytes is damaged, and is not allocated.
+     */
+    private static AveksaResult readResult(DataInputStream input, long fileLength) throws IOException {
+        if (!input.readBoolean()) {
+            return AveksaResult.ofCount(input.readLong());
+        }
+        int fieldCount = readVarInt(input);
+        if (fieldCount > fileLength) {
+            throw new IOException("Invalid field count " + fieldCount + ".");
+        }
+        List<String> fields = new ArrayList<String>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            fields.add(readString(input));
+        }
+        int rowCount = readVarInt(input);
+        if (rowCount > fileLength || (long)fieldCount * rowCount > fileLength) {
+            throw new IOException("Invalid row count " + rowCount + ".");
+        }
+        Object[][] columns = new Object[fieldCount][];
+        // The same estimate the response parser makes, so restored results count the same
+        long bytes = 64;
+        for (int column = 0; column < fieldCount; column++) {
+            Object[] values = new Object[rowCount];
+            List<Object> read = new ArrayList<Object>();
+            for (int row = 0; row < rowCount; row++) {
+                int type = input.readUnsignedByte();
+                Object value;
+                if (type == REFERENCE) {
+                    int reference = readVarInt(input);
+                    if (reference >= read.size()) {
+                        throw new IOException("Invalid value reference " + reference + ".");
+                    }
+                    values[row] = read.get(reference);
+                    continue;
+                } else if (type == NULL) {
+                    values[row] = null;
+                    continue;
+                } else if (type == TRUE || type == FALSE) {
+                    value = type == TRUE;
+                } else if (type == LONG) {
+                    value = input.readLong();
+                } else if (type == DOUBLE) {
+                    value = input.readDouble();
+                } else if (type == STRING || type == OTHER) {
+                    value = readString(input);
+                } else if (type == JSON) {
+                    value = readJson(input);
+                } else {
+                    throw new IOException("Invalid value type " + type + ".");
+                }
+                read.add(value);
+                values[row] = value;
+                if (value instanceof String) {
+                    bytes += 40 + 2L * ((String)value).length();
+                } else if (value instanceof Map || value instanceof List) {
+                    bytes += 40 + 4L * value.toString().length();
+                } else {
+                    bytes += 16;
+                }
+            }
+            columns[column] = values;
+            bytes += 8L * rowCount + 2L * fields.get(column).length();
+        }
+        return AveksaResult.ofColumns(fields, columns, rowCount, bytes);
+    }
+
+    private static Object readJson(DataInputStream input) throws IOException {
+        String json = readString(input);
+        try {
+            Object value = new JSONParser().parse(json);
+            if (!(value instanceof Map) && !(value instanceof List)) {
+                throw new IOException("Invalid nested value.");
+            }
+            return value;
+        } catch (ParseException e) {
+            throw new IOException("Invalid nested value.", e);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = readVarInt(input);
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length " + length + ".");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Writes a non-negative int in as few bytes as it needs, seven bits at a time. */
+    private static void writeVarInt(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int next = input.readUnsignedByte();
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Invalid length " + value + ".");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Invalid length.");
+    }
+}
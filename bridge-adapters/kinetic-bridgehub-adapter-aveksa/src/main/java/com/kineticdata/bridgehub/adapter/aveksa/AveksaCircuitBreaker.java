@@ -0,0 +1,139 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops sending requests to Aveksa for a while once too many of them fail, so bridge calls fail
+ * straight away, or are answered from the cache, instead of each waiting out its deadline.
+ *
+ * Outcomes are counted over ten second windows. Once a window has seen the minimum number of
+ * requests and the share that failed reaches the failure rate, the breaker opens and no requests
+ * are sent for the open time. After that a single trial request is let through: the breaker
+ * closes if it succeeds and opens again if it fails.
+ */
+public class AveksaCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaCircuitBreaker.class);
+
+    private static final long WINDOW_MILLIS = 10000;
+
+    private final String name;
+    private final int failureRatePercent;
+    private final int minimumRequests;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private long windowEnd;
+    private int requests;
+    private int failures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    /**
+     * @param name identifies the Aveksa server in logs and errors
+     * @param failureRatePercent the percentage of failed requests that opens the breaker, or 0
+     *        to never open it
+     * @param minimumRequests the requests a window needs before its failure rate is considered
+     * @param openSeconds how long the breaker stays open before a trial request is let through
+     */
+    public AveksaCircuitBreaker(String name, int failureRatePercent, int minimumRequests, long openSeconds) {
+        this.name = name;
+        this.failureRatePercent = failureRatePercent;
+        this.minimumRequests = minimumRequests;
+        this.openMillis = TimeUnit.SECONDS.toMillis(openSeconds);
+    }
+
+    /**
+     * Returns whether a request may be sent. Every request that is let through must be followed
+     * by a call to recordSuccess, recordFailure or release.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.HALF_OPEN && !trialInFlight) {
+            trialInFlight = true;
+            return true;
+        }
+        return false;
+    }
+
+    /** Records a request that Aveksa answered, even if the answer was an error for the request. */
+    public synchronized void recordSuccess() {
+        if (state == State.HALF_OPEN) {
+            logger.info("Aveksa at '" + name + "' is responding again, resuming requests.");
+            state = State.CLOSED;
+            trialInFlight = false;
+            resetWindow(System.currentTimeMillis());
+        } else if (state == State.CLOSED) {
+            count(false);
+        }
+    }
+
+    /** Records a request that failed because Aveksa could not be reached or did not answer in time. */
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN) {
+            open("the trial request failed");
+        } else if (state == State.CLOSED) {
+            count(true);
+        }
+    }
+
+    /** Records a request that was let through but never sent, such as one rejected by the bulkhead. */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Returns how long the breaker stays open before it lets a trial request through. */
+    public long getOpenSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(openMillis);
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void count(boolean failed) {
+        if (failureRatePercent == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= windowEnd) {
+            resetWindow(now);
+        }
+        requests++;
+        if (failed) {
+            failures++;
+            if (requests >= minimumRequests && failures * 100L >= failureRatePercent * (long)requests) {
+                open(failures + " of the last " + requests + " requests failed");
+            }
+        }
+    }
+
+    private void open(String reason) {
+        logger.warn("Pausing requests to Aveksa at '" + name + "' for " + getOpenSeconds() + " seconds because " + reason + ".");
+        state = State.OPEN;
+        openUntil = System.currentTimeMillis() + openMillis;
+        trialInFlight = false;
+    }
+
+    private void resetWindow(long now) {
+        windowEnd = now + WINDOW_MILLIS;
+        requests = 0;
+        failures = 0;
+    }
+}
@@ -0,0 +1,91 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.Cancellable;
+
+/**
+ * Tracks the HTTP request currently sent for one Aveksa command, including its retry after a
+ * 401 and any hedge sent to a second node, so that a caller whose deadline has passed can abort
+ * them from another thread. It also notes whether the command was picked up by a worker and
+ * whether it failed because of Aveksa rather than because of the request, for the circuit breaker.
+ */
+public class AveksaCommandCall implements Cancellable {
+
+    private HttpGet current;
+    private boolean cancelled;
+    private boolean superseded;
+    private final List<AveksaCommandCall> hedges = new ArrayList<AveksaCommandCall>(1);
+    private volatile boolean started;
+    private volatile boolean failed;
+
+    /**
+     * Creates the request to send next. If the call has already been cancelled, or superseded by
+     * a hedge, the request is returned aborted, so executing it fails immediately.
+     */
+    public synchronized HttpGet newGet(String url) {
+        current = new HttpGet(url);
+        if (cancelled || superseded) {
+            current.abort();
+        }
+        return current;
+    }
+
+    /** Creates the call tracking a hedge of this call, which is cancelled along with it. */
+    public synchronized AveksaCommandCall newHedge() {
+        AveksaCommandCall hedge = new AveksaCommandCall();
+        if (cancelled) {
+            hedge.cancel();
+        }
+        hedges.add(hedge);
+        return hedge;
+    }
+
+    /** Aborts the request because a hedge got its response first, without cancelling any hedge. */
+    public synchronized void supersede() {
+        superseded = true;
+        if (current != null) {
+            current.abort();
+        }
+    }
+
+    public synchronized boolean isSuperseded() {
+        return superseded;
+    }
+
+    /** Returns whether the caller has given up on the call. */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void markStarted() {
+        started = true;
+    }
+
+    /** Returns whether a worker has started sending the command. */
+    public boolean isStarted() {
+        return started;
+    }
+
+    public void markFailed() {
+        failed = true;
+    }
+
+    /** Returns whether the command failed because Aveksa could not be reached or returned a server error. */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized boolean cancel() {
+        cancelled = true;
+        if (current != null) {
+            current.abort();
+        }
+        for (AveksaCommandCall hedge : hedges) {
+            hedge.cancel();
+        }
+        return true;
+    }
+}
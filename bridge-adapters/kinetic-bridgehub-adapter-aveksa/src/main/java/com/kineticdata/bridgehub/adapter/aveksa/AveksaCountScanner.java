@@ -0,0 +1,168 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Counts the rows of an Aveksa find command response without building them. The body is scanned
+ * byte by byte, tracking only nesting depth and string state, so no objects are allocated per row.
+ * If the response includes a Total value that is used instead of the scanned row count.
+ *
+ * The scan relies on the structural JSON characters being single bytes, which holds for UTF-8 and
+ * the other ASCII compatible charsets Aveksa responds with.
+ */
+public class AveksaCountScanner implements AveksaResponseHandler {
+
+    private static final byte[] TOTAL_KEY = bytes(AveksaResponseParser.TOTAL_KEY);
+
+    private static final int KEY_OTHER = 0;
+    private static final int KEY_COMMAND = 1;
+    private static final int KEY_TOTAL = 2;
+
+    private final byte[] commandKey;
+    private long rows;
+    private long total = -1;
+    private boolean totalComplete;
+
+    public AveksaCountScanner(String command) {
+        this.commandKey = bytes(command);
+    }
+
+    /** Returns the Total reported by Aveksa if present, otherwise the number of scanned rows. */
+    public long getCount() {
+        return total >= 0 ? total : rows;
+    }
+
+    @Override
+    public void parse(InputStream content, Charset charset) throws IOException {
+        byte[] buffer = new byte[8192];
+
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        // Whether the next string at the root level is a key rather than a value
+        boolean expectingKey = false;
+        // Progress matching the current root level key against the command and Total keys
+        int keyLength = 0;
+        boolean matchesCommand = false;
+        boolean matchesTotal = false;
+        int lastKey = KEY_OTHER;
+        boolean inCommand = false;
+        boolean awaitingRow = false;
+
+        int read;
+        while ((read = content.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                byte b = buffer[i];
+
+                if (inString) {
+                    if (escaped) {
+                        escaped = false;
+                        matchesCommand = false;
+                        matchesTotal = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == '"') {
+                        inString = false;
+                        if (depth == 1 && expectingKey) {
+                            if (matchesCommand && keyLength == commandKey.length) {
+                                lastKey = KEY_COMMAND;
+                            } else if (matchesTotal && keyLength == TOTAL_KEY.length) {
+                                lastKey = KEY_TOTAL;
+                            } else {
+                                lastKey = KEY_OTHER;
+                            }
+                        }
+                    } else if (depth == 1 && expectingKey) {
+                        matchesCommand = matchesCommand && keyLength < commandKey.length && b == commandKey[keyLength];
+                        matchesTotal = matchesTotal && keyLength < TOTAL_KEY.length && b == TOTAL_KEY[keyLength];
+                        keyLength++;
+                    } else if (depth == 1 && lastKey == KEY_TOTAL) {
+                        // Aveksa may quote the Total value
+                        scanTotal(b);
+                    }
+                    continue;
+                }
+
+                if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+                    continue;
+                }
+
+                // The first character after the opening bracket or a comma starts a new row
+                if (awaitingRow && depth == 2) {
+                    awaitingRow = false;
+                    if (b != ']') {
+                        rows++;
+                    }
+                }
+
+                switch (b) {
+                    case '"':
+                        inString = true;
+                        keyLength = 0;
+                        matchesCommand = true;
+                        matchesTotal = true;
+                        break;
+                    case '{':
+                        depth++;
+                        if (depth == 1) {
+                            expectingKey = true;
+                        }
+                        break;
+                    case '[':
+                        depth++;
+                        if (depth == 2 && lastKey == KEY_COMMAND) {
+                            inCommand = true;
+                            awaitingRow = true;
+                        }
+                        break;
+                    case '}':
+                    case ']':
+                        if (depth == 2) {
+                            inCommand = false;
+                        }
+                        depth--;
+                        break;
+                    case ':':
+                        if (depth == 1) {
+                            expectingKey = false;
+                        }
+                        break;
+                    case ',':
+                        if (depth == 1) {
+                            expectingKey = true;
+                            lastKey = KEY_OTHER;
+                        } else if (depth == 2 && inCommand) {
+                            awaitingRow = true;
+                        }
+                        break;
+                    default:
+                        if (depth == 1 && lastKey == KEY_TOTAL) {
+                            scanTotal(b);
+                        }
+                }
+            }
+        }
+    }
+
+    /** Accumulates the leading digits of the Total value, ignoring any fraction or exponent. */
+    private void scanTotal(byte b) {
+        if (totalComplete) {
+            return;
+        }
+        if (b >= '0' && b <= '9') {
+            total = (total < 0 ? 0 : total * 10) + (b - '0');
+        } else if (total >= 0) {
+            totalComplete = true;
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
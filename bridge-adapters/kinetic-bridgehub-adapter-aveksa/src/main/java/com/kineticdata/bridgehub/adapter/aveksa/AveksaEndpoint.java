@@ -0,0 +1,157 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One Aveksa application node the adapter sends requests to, with its own login token, its own
+ * bulkhead so a slow node can not hold up requests to the others, and what has been observed
+ * about it: the requests in flight, a moving average of its response latency
+ * and its passive health.
+ *
+ * A node is marked unavailable after a request to it fails with a connection error, a socket
+ * timeout or a 5xx status. It is left alone for a backoff that doubles with every consecutive
+ * failure, after which the next request is let through to test it, and a single success makes it
+ * available again.
+ */
+public class AveksaEndpoint {
+
+    /** The weight of the newest sample in the latency average. */
+    private static final double LATENCY_WEIGHT = 0.2;
+    private static final long MIN_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    private final String url;
+    private final String name;
+    private AveksaTokenManager tokenManager;
+    private AveksaBulkhead bulkhead;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long unavailableUntil;
+
+    /**
+     * @param url the base url of the node, such as https://aveksa1.example.com:8443
+     * @param name identifies the node in logs and metrics, such as its host and port
+     */
+    public AveksaEndpoint(String url, String name) {
+        this.url = url;
+        this.name = name;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public AveksaTokenManager getTokenManager() {
+        return tokenManager;
+    }
+
+    public void setTokenManager(AveksaTokenManager tokenManager) {
+        this.tokenManager = tokenManager;
+    }
+
+    public AveksaBulkhead getBulkhead() {
+        return bulkhead;
+    }
+
+    public void setBulkhead(AveksaBulkhead bulkhead) {
+        this.bulkhead = bulkhead;
+    }
+
+    /** Returns whether the node has not failed recently or its backoff has passed. */
+    public boolean isAvailable() {
+        return System.currentTimeMillis() >= unavailableUntil;
+    }
+
+    /** Returns when the node may be tried again, in epoch milliseconds. */
+    public long getUnavailableUntil() {
+        return unavailableUntil;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** Returns the moving average of the time the node took to respond. */
+    public long getLatencyNanos() {
+        return latencyNanos.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the cost of sending the node another request: its average latency scaled by the
+     * requests already waiting on it. Nodes that have not responded yet cost nothing, so they are
+     * tried first.
+     */
+    public double getLoad() {
+        return (double)latencyNanos.get() * (inFlight.get() + 1);
+    }
+
+    /** Called when a request is sent to the node. */
+    public void requestStarted() {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+    }
+
+    /** Called when a request sent to the node has completed, whatever the outcome. */
+    public void requestFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    /** Records a response from the node and makes it available again. */
+    public void recordSuccess(long nanos) {
+        recordLatency(nanos);
+        if (consecutiveFailures.get() > 0) {
+            consecutiveFailures.set(0);
+            unavailableUntil = 0;
+        }
+    }
+
+    /**
+     * Records a request that was abandoned before the node responded. The time waited counts
+     * towards the latency average, but the node is not marked unavailable since the caller may
+     * simply have run out of time.
+     */
+    public void recordAbandoned(long nanos) {
+        recordLatency(nanos);
+    }
+
+    /** Records a failed request and marks the node unavailable for the next backoff. */
+    public void recordFailure() {
+        failures.incrementAndGet();
+        int consecutive = consecutiveFailures.incrementAndGet();
+        long backoff = MIN_BACKOFF_MILLIS << Math.min(consecutive - 1, 5);
+        unavailableUntil = System.currentTimeMillis() + Math.min(backoff, MAX_BACKOFF_MILLIS);
+    }
+
+    /** Returns a point in time copy of the node's state for reporting. */
+    public AveksaEndpointStats toStats() {
+        return new AveksaEndpointStats(name, isAvailable(), inFlight.get(),
+            TimeUnit.NANOSECONDS.toMicros(latencyNanos.get()), requests.get(), failures.get(),
+            consecutiveFailures.get());
+    }
+
+    private void recordLatency(long nanos) {
+        long current = latencyNanos.get();
+        long updated = current == 0 ? nanos : (long)(current + LATENCY_WEIGHT * (nanos - current));
+        while (!latencyNanos.compareAndSet(current, updated)) {
+            current = latencyNanos.get();
+            updated = current == 0 ? nanos : (long)(current + LATENCY_WEIGHT * (nanos - current));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks the Aveksa node each request is sent to. Two available nodes are drawn at random and the
+ * one with the lower load, its average latency scaled by its requests in flight, is used. Drawing
+ * two rather than always taking the least loaded node keeps concurrent callers from all piling
+ * onto the same node between latency updates.
+ *
+ * Nodes that are backing off after a failure are skipped. If every remaining node is backing off
+ * the one that may be retried soonest is used, so requests still go out while all nodes are down.
+ */
+public class AveksaEndpointSelector {
+
+    private final List<AveksaEndpoint> endpoints;
+    private final Random random = new Random();
+
+    public AveksaEndpointSelector(List<AveksaEndpoint> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    public List<AveksaEndpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns the node to send the next request to, or null if every node has been excluded.
+     *
+     * @param excluded nodes already tried for this request
+     */
+    public AveksaEndpoint select(Collection<AveksaEndpoint> excluded) {
+        if (endpoints.size() == 1) {
+            return excluded.isEmpty() ? endpoints.get(0) : null;
+        }
+        List<AveksaEndpoint> available = new ArrayList<AveksaEndpoint>(endpoints.size());
+        AveksaEndpoint soonest = null;
+        for (AveksaEndpoint endpoint : endpoints) {
+            if (excluded.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isAvailable()) {
+                available.add(endpoint);
+            } else if (soonest == null || endpoint.getUnavailableUntil() < soonest.getUnavailableUntil()) {
+                soonest = endpoint;
+            }
+        }
+        if (available.isEmpty()) {
+            return soonest;
+        } else if (available.size() == 1) {
+            return available.get(0);
+        }
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        AveksaEndpoint a = available.get(first);
+        AveksaEndpoint b = available.get(second);
+        return a.getLoad() <= b.getLoad() ? a : b;
+    }
+}
@@ -0,0 +1,54 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+/**
+ * A point in time copy of the state of one AveksaEndpoint, latency in microseconds.
+ */
+public class AveksaEndpointStats {
+
+    private final String endpoint;
+    private final boolean available;
+    private final int inFlight;
+    private final long latency;
+    private final long requests;
+    private final long failures;
+    private final int consecutiveFailures;
+
+    public AveksaEndpointStats(String endpoint, boolean available, int inFlight, long latency, long requests,
+        long failures, int consecutiveFailures) {
+        this.endpoint = endpoint;
+        this.available = available;
+        this.inFlight = inFlight;
+        this.latency = latency;
+        this.requests = requests;
+        this.failures = failures;
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public long getFailures() {
+        return failures;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
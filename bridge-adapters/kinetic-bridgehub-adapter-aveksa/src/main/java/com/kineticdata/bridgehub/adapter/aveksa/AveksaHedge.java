@@ -0,0 +1,109 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.concurrent.Future;
+import org.apache.http.HttpResponse;
+
+/**
+ * A second copy of a find request, sent to another Aveksa node once the first copy has waited
+ * longer than most recent requests did. Whichever copy gets its response first is used and the
+ * other is aborted. Only the wait for a response is raced, once a copy has its response the body
+ * is read and parsed by the thread that sent the first copy.
+ */
+public class AveksaHedge {
+
+    private final AveksaEndpoint endpoint;
+    private final AveksaCommandCall call;
+    private Future<?> scheduled;
+    private boolean started;
+    private boolean abandoned;
+    private boolean decided;
+    private boolean finished;
+    private HttpResponse response;
+
+    /**
+     * @param endpoint the node the hedge is sent to
+     * @param call tracks the hedge request so it can be aborted
+     */
+    public AveksaHedge(AveksaEndpoint endpoint, AveksaCommandCall call) {
+        this.endpoint = endpoint;
+        this.call = call;
+    }
+
+    public AveksaEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public AveksaCommandCall getCall() {
+        return call;
+    }
+
+    /** Sets the timer that sends the hedge, so it can be cancelled if the hedge is not needed. */
+    public synchronized void setScheduled(Future<?> scheduled) {
+        this.scheduled = scheduled;
+    }
+
+    /** Called just before the hedge is sent, returns false if it is no longer needed. */
+    public synchronized boolean start() {
+        if (decided || abandoned) {
+            return false;
+        }
+        started = true;
+        return true;
+    }
+
+    /**
+     * Called when the first copy got its response. Returns true, and aborts the hedge, if the
+     * first copy was first, otherwise the hedge's response is to be used instead.
+     */
+    public boolean primaryResponded() {
+        synchronized (this) {
+            if (decided) {
+                return false;
+            }
+            decided = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+        call.cancel();
+        return true;
+    }
+
+    /**
+     * Called when the hedge got its response. Returns true if the hedge was first, in which case
+     * its response is handed to the thread waiting on the first copy.
+     */
+    public synchronized boolean hedgeResponded(HttpResponse hedgeResponse) {
+        if (decided) {
+            return false;
+        }
+        decided = true;
+        response = hedgeResponse;
+        notifyAll();
+        return true;
+    }
+
+    /** Called once a hedge that did not win has completed. */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * Called when the first copy failed or lost. Waits for a hedge that has been sent and returns
+     * its response, or null if the hedge failed or was never sent, in which case it never will be.
+     */
+    public synchronized HttpResponse await() throws InterruptedException {
+        if (!started) {
+            abandoned = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            return null;
+        }
+        while (response == null && !finished) {
+            wait();
+        }
+        return response;
+    }
+}
@@ -0,0 +1,41 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registers the adapter metrics as an MXBean on the platform MBean server, under
+ * com.kineticdata.bridgehub.adapter.aveksa:type=AveksaAdapter,name=&lt;Aveksa host&gt;. Further
+ * adapter instances for the same host get a numbered name.
+ */
+public class AveksaJmxMetricsRegistry implements AveksaMetricsRegistry {
+
+    public static final String DOMAIN = "com.kineticdata.bridgehub.adapter.aveksa";
+
+    private ObjectName objectName;
+
+    @Override
+    public synchronized void register(AveksaMetrics metrics) throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (int instance = 1; objectName == null; instance++) {
+            ObjectName candidate = new ObjectName(DOMAIN + ":type=AveksaAdapter,name="
+                + ObjectName.quote(instance == 1 ? metrics.getName() : metrics.getName() + "-" + instance));
+            try {
+                server.registerMBean(metrics, candidate);
+                objectName = candidate;
+            } catch (InstanceAlreadyExistsException e) {
+                // Another adapter instance talks to the same host, try the next name
+            }
+        }
+    }
+
+    @Override
+    public synchronized void unregister(AveksaMetrics metrics) throws Exception {
+        if (objectName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            objectName = null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+/**
+ * A point in time copy of one AveksaLatencyHistogram, in microseconds.
+ */
+public class AveksaLatencyStats {
+
+    private final String phase;
+    private final long count;
+    private final long mean;
+    private final long p50;
+    private final long p95;
+    private final long p99;
+    private final long max;
+
+    public AveksaLatencyStats(String phase, long count, long mean, long p50, long p95, long p99, long max) {
+        this.phase = phase;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP95() {
+        return p95;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,48 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+/**
+ * The latencies recorded over about the last minute, for decisions that should follow how
+ * Aveksa is behaving now rather than since the adapter started. Latencies are recorded into the
+ * histogram of the current minute, and percentiles are read from whichever of the current and the
+ * previous minute has more samples.
+ */
+public class AveksaLatencyWindow {
+
+    private static final long WINDOW_MILLIS = 60000;
+
+    /** The fewest samples a percentile is reported for, anything less is too noisy to act on. */
+    private static final long MIN_SAMPLES = 20;
+
+    private volatile AveksaLatencyHistogram current = new AveksaLatencyHistogram();
+    private volatile AveksaLatencyHistogram previous;
+    private volatile long windowEnd = System.currentTimeMillis() + WINDOW_MILLIS;
+
+    public void record(long nanos) {
+        long now = System.currentTimeMillis();
+        if (now >= windowEnd) {
+            rotate(now);
+        }
+        current.record(nanos);
+    }
+
+    /**
+     * Returns an upper bound, in microseconds, on the given percentile of the recent latencies,
+     * or -1 if too few have been recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        AveksaLatencyHistogram latest = current;
+        AveksaLatencyHistogram last = previous;
+        AveksaLatencyHistogram histogram = last != null && last.getCount() > latest.getCount() ? last : latest;
+        return histogram.getCount() < MIN_SAMPLES ? -1 : histogram.getPercentileMicros(percentile);
+    }
+
+    private synchronized void rotate(long now) {
+        if (now < windowEnd) {
+            return;
+        }
+        // After a minute without any requests the last window no longer says anything recent
+        previous = now < windowEnd + WINDOW_MILLIS ? current : null;
+        current = new AveksaLatencyHistogram();
+        windowEnd = now + WINDOW_MILLIS;
+    }
+}
@@ -0,0 +1,106 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from a response body and the time spent blocked reading them, so the
+ * transfer time can be told apart from the parsing done between reads. One instance is kept per
+ * thread and pointed at each new response, see {@link #wrap(InputStream)}.
+ */
+public class AveksaMeteredInputStream extends FilterInputStream {
+
+    private static final ThreadLocal<AveksaMeteredInputStream> CURRENT = new ThreadLocal<AveksaMeteredInputStream>() {
+        @Override
+        protected AveksaMeteredInputStream initialValue() {
+            return new AveksaMeteredInputStream();
+        }
+    };
+
+    private static final ThreadLocal<AveksaMeteredInputStream> DECODED = new ThreadLocal<AveksaMeteredInputStream>() {
+        @Override
+        protected AveksaMeteredInputStream initialValue() {
+            return new AveksaMeteredInputStream();
+        }
+    };
+
+    private long bytes;
+    private long readNanos;
+
+    private AveksaMeteredInputStream() {
+        super(null);
+    }
+
+    /**
+     * Returns the current thread's instance reading from the given stream, with its counters
+     * reset. It must be done with before the thread meters another response.
+     */
+    public static AveksaMeteredInputStream wrap(InputStream content) {
+        return CURRENT.get().reset(content);
+    }
+
+    /**
+     * Like wrap, but returns the thread's second instance, used to meter the decompressed body
+     * read through the instance returned by wrap.
+     */
+    public static AveksaMeteredInputStream wrapDecoded(InputStream content) {
+        return DECODED.get().reset(content);
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int value = in.read();
+        readNanos += System.nanoTime() - start;
+        if (value != -1) {
+            bytes++;
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        long start = System.nanoTime();
+        int count = in.read(buffer, offset, length);
+        readNanos += System.nanoTime() - start;
+        if (count > 0) {
+            bytes += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        long start = System.nanoTime();
+        long skipped = in.skip(count);
+        readNanos += System.nanoTime() - start;
+        bytes += skipped;
+        return skipped;
+    }
+
+    private AveksaMeteredInputStream reset(InputStream content) {
+        this.in = content;
+        this.bytes = 0;
+        this.readNanos = 0;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            // Do not keep the response reachable from the thread
+            in = null;
+        }
+    }
+}
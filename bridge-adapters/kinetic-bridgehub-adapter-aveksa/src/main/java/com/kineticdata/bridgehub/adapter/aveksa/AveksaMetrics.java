@@ -0,0 +1,357 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Counters and latency histograms for one adapter instance, kept per operation and structure.
+ *
+ * Every bridge call records its total latency, the rows it returned and whether it failed. Calls
+ * that reach Aveksa also record where the time went: waiting for a bulkhead worker (queue),
+ * opening a connection (connect), waiting for the response headers (wait), reading the body
+ * (transfer) and decompressing it and turning it into rows (parse), along with the response
+ * size before and after decompression and any non 200 status. Recording only updates atomic
+ * counters on objects created the first time a structure is seen, snapshots for reporting are
+ * built when they are read.
+ *
+ * Alongside the histograms kept since startup, the latency of whole Aveksa commands and of the
+ * wait for their responses is kept for the last minute, which the adaptive deadlines and hedge
+ * delays are based on.
+ */
+public class AveksaMetrics implements AveksaMetricsMXBean {
+
+    public enum Operation { COUNT, RETRIEVE, SEARCH, SYNC }
+
+    public enum Phase { TOTAL, QUEUE, CONNECT, WAIT, TRANSFER, PARSE }
+
+    /** The statuses errors are counted by, anything else is counted as other. */
+    private static final int[] ERROR_STATUSES = {401, 404, 412, 500};
+
+    /** Collects the time spent opening connections on the current worker thread. */
+    private static final ThreadLocal<long[]> CONNECT_NANOS = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final String name;
+    private final ConcurrentHashMap<String,OperationMetrics[]> structures =
+        new ConcurrentHashMap<String,OperationMetrics[]>();
+    private final AtomicLong reauthentications = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong circuitBreakerRejections = new AtomicLong();
+    private volatile long warmupMillis = -1;
+    private volatile PoolingHttpClientConnectionManager connectionManager;
+    private volatile List<AveksaEndpoint> endpoints;
+    private volatile AveksaCircuitBreaker circuitBreaker;
+
+    /**
+     * @param name identifies the adapter instance, such as the Aveksa host
+     */
+    public AveksaMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets the connection pool, Aveksa nodes and circuit breaker reported by the utilization
+     * gauges. The request gauges add up the bulkheads of the nodes.
+     */
+    public void setResources(PoolingHttpClientConnectionManager connectionManager, List<AveksaEndpoint> endpoints,
+        AveksaCircuitBreaker circuitBreaker) {
+        this.connectionManager = connectionManager;
+        this.endpoints = endpoints;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /** Returns the metrics of an operation on a structure, creating them on first use. */
+    public OperationMetrics get(Operation operation, String structure) {
+        String key = structure == null ? "" : structure;
+        OperationMetrics[] operations = structures.get(key);
+        if (operations == null) {
+            operations = new OperationMetrics[Operation.values().length];
+            for (Operation value : Operation.values()) {
+                operations[value.ordinal()] = new OperationMetrics(key, value);
+            }
+            OperationMetrics[] existing = structures.putIfAbsent(key, operations);
+            if (existing != null) {
+                operations = existing;
+            }
+        }
+        return operations[operation.ordinal()];
+    }
+
+    public void recordReauthentication() {
+        reauthentications.incrementAndGet();
+    }
+
+    public void recordHedge() {
+        hedgedRequests.incrementAndGet();
+    }
+
+    public void recordHedgeWin() {
+        hedgeWins.incrementAndGet();
+    }
+
+    public void recordCircuitBreakerRejection() {
+        circuitBreakerRejections.incrementAndGet();
+    }
+
+    public void recordWarmup(long millis) {
+        warmupMillis = millis;
+    }
+
+    /** Adds the time spent opening a connection to the current thread's connect time. */
+    public void recordConnect(long nanos) {
+        connectionsOpened.incrementAndGet();
+        CONNECT_NANOS.get()[0] += nanos;
+    }
+
+    /** Returns, and resets, the time the current thread spent opening connections. */
+    public long takeConnectNanos() {
+        long[] connectNanos = CONNECT_NANOS.get();
+        long nanos = connectNanos[0];
+        connectNanos[0] = 0;
+        return nanos;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * MXBEAN METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public long getReauthenticationCount() {
+        return reauthentications.get();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    @Override
+    public int getPoolLeased() {
+        PoolStats stats = getPoolStats();
+        return stats == null ? 0 : stats.getLeased();
+    }
+
+    @Override
+    public int getPoolAvailable() {
+        PoolStats stats = getPoolStats();
+        return stats == null ? 0 : stats.getAvailable();
+    }
+
+    @Override
+    public int getPoolPending() {
+        PoolStats stats = getPoolStats();
+        return stats == null ? 0 : stats.getPending();
+    }
+
+    @Override
+    public int getPoolMax() {
+        PoolStats stats = getPoolStats();
+        return stats == null ? 0 : stats.getMax();
+    }
+
+    @Override
+    public int getActiveRequests() {
+        int active = 0;
+        for (AveksaBulkhead bulkhead : getBulkheads()) {
+            active += bulkhead.getActiveCount();
+        }
+        return active;
+    }
+
+    @Override
+    public int getQueuedRequests() {
+        int queued = 0;
+        for (AveksaBulkhead bulkhead : getBulkheads()) {
+            queued += bulkhead.getQueuedCount();
+        }
+        return queued;
+    }
+
+    @Override
+    public List<AveksaOperationStats> getOperationStats() {
+        List<AveksaOperationStats> result = new ArrayList<AveksaOperationStats>();
+        for (Map.Entry<String,OperationMetrics[]> entry : structures.entrySet()) {
+            for (OperationMetrics operation : entry.getValue()) {
+                if (operation.requests.get() > 0) {
+                    result.add(operation.toStats());
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    @Override
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    @Override
+    public String getCircuitBreakerState() {
+        AveksaCircuitBreaker current = circuitBreaker;
+        return current == null ? null : current.getState().name();
+    }
+
+    @Override
+    public long getCircuitBreakerRejections() {
+        return circuitBreakerRejections.get();
+    }
+
+    @Override
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    @Override
+    public List<AveksaEndpointStats> getEndpointStats() {
+        List<AveksaEndpointStats> result = new ArrayList<AveksaEndpointStats>();
+        List<AveksaEndpoint> current = endpoints;
+        if (current != null) {
+            for (AveksaEndpoint endpoint : current) {
+                result.add(endpoint.toStats());
+            }
+        }
+        return result;
+    }
+
+    private PoolStats getPoolStats() {
+        PoolingHttpClientConnectionManager current = connectionManager;
+        return current == null ? null : current.getTotalStats();
+    }
+
+    private List<AveksaBulkhead> getBulkheads() {
+        List<AveksaBulkhead> result = new ArrayList<AveksaBulkhead>();
+        List<AveksaEndpoint> current = endpoints;
+        if (current != null) {
+            for (AveksaEndpoint endpoint : current) {
+                if (endpoint.getBulkhead() != null) {
+                    result.add(endpoint.getBulkhead());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The counters of one operation on one structure.
+     */
+    public static class OperationMetrics {
+        private final String structure;
+        private final Operation operation;
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLongArray errorsByStatus = new AtomicLongArray(ERROR_STATUSES.length + 1);
+        private final AtomicLong aveksaRequests = new AtomicLong();
+        private final AtomicLong responseBytes = new AtomicLong();
+        private final AtomicLong decodedBytes = new AtomicLong();
+        private final AtomicLong compressedResponses = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private final AveksaLatencyHistogram[] phases = new AveksaLatencyHistogram[Phase.values().length];
+        private final AveksaLatencyWindow recentCommands = new AveksaLatencyWindow();
+        private final AveksaLatencyWindow recentWaits = new AveksaLatencyWindow();
+
+        private OperationMetrics(String structure, Operation operation) {
+            this.structure = structure;
+            this.operation = operation;
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new AveksaLatencyHistogram();
+            }
+        }
+
+        /** Records a completed bridge call. */
+        public void recordRequest(long nanos, long rowsReturned, boolean failed) {
+            requests.incrementAndGet();
+            phases[Phase.TOTAL.ordinal()].record(nanos);
+            rows.addAndGet(rowsReturned);
+            if (failed) {
+                errors.incrementAndGet();
+            }
+        }
+
+        /** Records a request sent to Aveksa. */
+        public void recordAveksaRequest() {
+            aveksaRequests.incrementAndGet();
+        }
+
+        /** Records the time spent in a phase, waits are also kept for the recent wait percentiles. */
+        public void recordPhase(Phase phase, long nanos) {
+            phases[phase.ordinal()].record(nanos);
+            if (phase == Phase.WAIT) {
+                recentWaits.record(nanos);
+            }
+        }
+
+        /** Records the time an Aveksa command took, from being queued until it completed or was abandoned. */
+        public void recordCommand(long nanos) {
+            recentCommands.record(nanos);
+        }
+
+        /** Returns the given percentile of the recent command latencies, or -1 if there are too few. */
+        public long getRecentCommandMicros(double percentile) {
+            return recentCommands.getPercentileMicros(percentile);
+        }
+
+        /** Returns the given percentile of the recent response waits, or -1 if there are too few. */
+        public long getRecentWaitMicros(double percentile) {
+            return recentWaits.getPercentileMicros(percentile);
+        }
+
+        /** Records a response with a status other than 200, any 5xx is counted as a 500. */
+        public void recordStatus(int status) {
+            int normalized = status >= 500 && status < 600 ? 500 : status;
+            int index = ERROR_STATUSES.length;
+            for (int i = 0; i < ERROR_STATUSES.length; i++) {
+                if (ERROR_STATUSES[i] == normalized) {
+                    index = i;
+                }
+            }
+            errorsByStatus.incrementAndGet(index);
+        }
+
+        /**
+         * Records the size of a response body as sent by Aveksa and after decompression, which
+         * are the same for uncompressed responses.
+         */
+        public void recordResponseBytes(long bytes, long decoded, boolean compressed) {
+            responseBytes.addAndGet(bytes);
+            decodedBytes.addAndGet(decoded);
+            if (compressed) {
+                compressedResponses.incrementAndGet();
+            }
+        }
+
+        private AveksaOperationStats toStats() {
+            List<AveksaLatencyStats> latencies = new ArrayList<AveksaLatencyStats>();
+            for (Phase phase : Phase.values()) {
+                AveksaLatencyHistogram histogram = phases[phase.ordinal()];
+                latencies.add(new AveksaLatencyStats(phase.name(), histogram.getCount(), histogram.getMeanMicros(),
+                    histogram.getPercentileMicros(50), histogram.getPercentileMicros(95),
+                    histogram.getPercentileMicros(99), histogram.getMaxMicros()));
+            }
+            return new AveksaOperationStats(structure, operation.name(), requests.get(), errors.get(),
+                aveksaRequests.get(), errorsByStatus.get(0), errorsByStatus.get(1), errorsByStatus.get(2),
+                errorsByStatus.get(3), errorsByStatus.get(ERROR_STATUSES.length), responseBytes.get(), decodedBytes.get(),
+                compressedResponses.get(), rows.get(), latencies);
+        }
+    }
+}
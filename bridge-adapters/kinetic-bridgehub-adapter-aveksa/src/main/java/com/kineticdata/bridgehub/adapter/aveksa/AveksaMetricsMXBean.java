@@ -0,0 +1,51 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.List;
+
+/**
+ * The JMX view of an adapter's AveksaMetrics. Latencies are reported in microseconds.
+ */
+public interface AveksaMetricsMXBean {
+
+    /** Returns the number of times a rejected token forced a new login. */
+    long getReauthenticationCount();
+
+    /** Returns the number of connections opened to Aveksa. */
+    long getConnectionsOpened();
+
+    int getPoolLeased();
+
+    int getPoolAvailable();
+
+    /** Returns the number of requests waiting for a pooled connection. */
+    int getPoolPending();
+
+    int getPoolMax();
+
+    /** Returns the number of requests currently being sent to Aveksa. */
+    int getActiveRequests();
+
+    /** Returns the number of requests waiting for a bulkhead worker. */
+    int getQueuedRequests();
+
+    /** Returns the number of hedge requests sent to a second node. */
+    long getHedgedRequests();
+
+    /** Returns the number of hedge requests that got their response before the original request. */
+    long getHedgeWins();
+
+    /** Returns CLOSED, OPEN or HALF_OPEN. */
+    String getCircuitBreakerState();
+
+    /** Returns the number of requests failed straight away because the circuit breaker was open. */
+    long getCircuitBreakerRejections();
+
+    /** Returns the milliseconds the startup warm-up took, or -1 until it has finished. */
+    long getWarmupMillis();
+
+    /** Returns the counters and latencies of every operation and structure that has been called. */
+    List<AveksaOperationStats> getOperationStats();
+
+    /** Returns the health, load and latency of every Aveksa node. */
+    List<AveksaEndpointStats> getEndpointStats();
+}
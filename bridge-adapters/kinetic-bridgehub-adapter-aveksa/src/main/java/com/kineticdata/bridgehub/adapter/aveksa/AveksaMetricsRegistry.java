@@ -0,0 +1,16 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+/**
+ * Publishes the metrics of an adapter instance to a monitoring system. The implementation is
+ * named by the adapter's "Metrics Registry" property and created with its no argument
+ * constructor, once per adapter instance. The registered AveksaMetrics can be read at any time,
+ * its getters build their values when called.
+ */
+public interface AveksaMetricsRegistry {
+
+    /** Starts publishing the metrics, called when the adapter is initialized. */
+    void register(AveksaMetrics metrics) throws Exception;
+
+    /** Stops publishing the metrics, called when the adapter is destroyed. */
+    void unregister(AveksaMetrics metrics) throws Exception;
+}
@@ -0,0 +1,302 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a local copy of reference structures that rarely change, such as Users or Groups, and
+ * answers queries against them without calling Aveksa. Each mirrored structure is pulled in full
+ * on a fixed interval and published as an immutable snapshot, so queries always see either the
+ * previous or the new copy and never a partial one. Value indexes are built on a snapshot the
+ * first time an attribute is queried.
+ *
+ * Only filters made of exact attribute=value matches joined by '&' are answered locally, and only
+ * on attributes configured as matched exactly. Aveksa compares values with the rules of its
+ * database, which may ignore case or trailing spaces, while the mirror compares them exactly, so
+ * an attribute is only safe to answer locally if its values are compared the same way by both,
+ * such as ids. Any other filter, an attribute the structure does not return, or a structure that
+ * has not finished its first sync returns null so the caller queries Aveksa instead.
+ */
+public class AveksaMirror {
+
+    /** Pulls every row and column of a structure from Aveksa. */
+    public interface Loader {
+        AveksaResult loadAll(String structure) throws BridgeError;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaMirror.class);
+
+    private final Loader loader;
+    private final Map<String,Set<String>> structures;
+    private final long intervalSeconds;
+    private final ConcurrentHashMap<String,Snapshot> snapshots = new ConcurrentHashMap<String,Snapshot>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param loader pulls a full structure
+     * @param structures the structures to mirror, each with the attributes it may be filtered on
+     * @param intervalSeconds the delay between the end of one sync of a structure and the next
+     */
+    public AveksaMirror(Loader loader, Map<String,Set<String>> structures, long intervalSeconds) {
+        this.loader = loader;
+        this.structures = structures;
+        this.intervalSeconds = intervalSeconds;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "aveksa-mirror-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Parses a comma separated list of structures, each optionally followed by a comma separated
+     * list of the attributes matched exactly in brackets, such as 'Users[id,employeeId],Groups'.
+     * Returns the attributes of each structure, and an empty map for no value.
+     */
+    public static Map<String,Set<String>> parseStructures(String value, String propertyName) throws BridgeError {
+        Map<String,Set<String>> result = new LinkedHashMap<String,Set<String>>();
+        if (value == null) {
+            return result;
+        }
+        List<String> structures = new ArrayList<String>();
+        int start = 0;
+        boolean inBrackets = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '[' || c == ']') {
+                if (inBrackets == (c == '[')) {
+                    throw invalidStructure(propertyName, value);
+                }
+                inBrackets = c == '[';
+            } else if (c == ',' && !inBrackets) {
+                structures.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (inBrackets) {
+            throw invalidStructure(propertyName, value);
+        }
+        structures.add(value.substring(start));
+
+        for (String structureValue : structures) {
+            String structure = structureValue.trim();
+            if (structure.isEmpty()) {
+                continue;
+            }
+            Set<String> attributes = new HashSet<String>();
+            int attributesStart = structure.indexOf('[');
+            if (attributesStart >= 0) {
+                if (attributesStart == 0 || !structure.endsWith("]")) {
+                    throw invalidStructure(propertyName, structureValue);
+                }
+                for (String attribute : structure.substring(attributesStart + 1, structure.length() - 1).split(",")) {
+                    if (!attribute.trim().isEmpty()) {
+                        attributes.add(attribute.trim());
+                    }
+                }
+                structure = structure.substring(0, attributesStart).trim();
+            }
+            result.put(structure, attributes);
+        }
+        return result;
+    }
+
+    /**
+     * Starts syncing every mirrored structure in the background.
+     */
+    public void start() {
+        for (final String structure : structures.keySet()) {
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sync(structure);
+                }
+            }, 0, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Returns the rows of the structure matching the filter, or null if the mirror can not
+     * answer the query.
+     *
+     * @param fields the fields the caller reads from the rows, or null for all of them
+     */
+    public AveksaResult query(String structure, String filter, List<String> fields) {
+        Snapshot snapshot = snapshots.get(structure);
+        if (snapshot == null) {
+            return null;
+        }
+        if (fields != null) {
+            for (String field : fields) {
+                if (snapshot.result.getFieldIndex(field) < 0) {
+                    return null;
+                }
+            }
+        }
+        if (filter.equals("*")) {
+            return snapshot.result;
+        }
+        Map<String,String> criteria = parseFilter(filter);
+        if (criteria == null) {
+            return null;
+        }
+        Set<String> exactAttributes = structures.get(structure);
+        for (String attribute : criteria.keySet()) {
+            if (!exactAttributes.contains(attribute) || snapshot.result.getFieldIndex(attribute) < 0) {
+                return null;
+            }
+        }
+
+        // Narrow down with the index of the first attribute and check the rest row by row
+        Map.Entry<String,String> first = criteria.entrySet().iterator().next();
+        int[] candidates = snapshot.getIndex(first.getKey()).get(first.getValue());
+        if (candidates == null) {
+            return snapshot.result.select(new int[0]);
+        }
+        int[] matches = new int[candidates.length];
+        int matchCount = 0;
+        for (int row : candidates) {
+            boolean matched = true;
+            for (Map.Entry<String,String> criterion : criteria.entrySet()) {
+                Object value = snapshot.result.getRawValue(row, snapshot.result.getFieldIndex(criterion.getKey()));
+                if (value == null || !value.toString().equals(criterion.getValue())) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                matches[matchCount++] = row;
+            }
+        }
+        return snapshot.result.select(matchCount == matches.length ? matches : Arrays.copyOf(matches, matchCount));
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void sync(String structure) {
+        long start = System.currentTimeMillis();
+        try {
+            AveksaResult result = loader.loadAll(structure);
+            Snapshot current = snapshots.get(structure);
+            // Keep the current snapshot, and the indexes already built on it, if nothing changed
+            if (current != null && current.result.hasSameRows(result)) {
+                logger.debug("Mirror of '" + structure + "' is unchanged after " + (System.currentTimeMillis() - start) + " ms.");
+            } else {
+                snapshots.put(structure, new Snapshot(result));
+                logger.debug("Mirror of '" + structure + "' refreshed with " + result.getRowCount() + " rows in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+        } catch (Exception e) {
+            // The previous snapshot, if any, keeps being served until a sync succeeds
+            logger.warn("Unable to sync the mirror of '" + structure + "'.", e);
+        }
+    }
+
+    /**
+     * Parses a resolved filter into attribute to value criteria, returning null if it contains
+     * anything other than exact matches.
+     */
+    private static Map<String,String> parseFilter(String filter) {
+        Map<String,String> criteria = new LinkedHashMap<String,String>();
+        try {
+            for (String parameter : filter.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator < 1) {
+                    return null;
+                }
+                String attribute = URLDecoder.decode(parameter.substring(0, separator), "UTF-8");
+                String value = URLDecoder.decode(parameter.substring(separator + 1), "UTF-8");
+                // Wildcards and repeated attributes have Aveksa specific meanings
+                if (value.indexOf('*') >= 0 || value.indexOf('%') >= 0 || criteria.containsKey(attribute)) {
+                    return null;
+                }
+                criteria.put(attribute, value);
+            }
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return criteria.isEmpty() ? null : criteria;
+    }
+
+    private static BridgeError invalidStructure(String propertyName, String value) {
+        return new BridgeError("Invalid Property: '" + propertyName + "' contains the invalid structure '" + value.trim() + "'.");
+    }
+
+    /**
+     * One complete copy of a structure along with the value indexes built on it so far.
+     */
+    private static class Snapshot {
+        private final AveksaResult result;
+        private final ConcurrentHashMap<String,Map<String,int[]>> indexes = new ConcurrentHashMap<String,Map<String,int[]>>();
+
+        private Snapshot(AveksaResult result) {
+            this.result = result;
+        }
+
+        /** Returns the rows holding each value of the attribute, building the index if needed. */
+        private Map<String,int[]> getIndex(String attribute) {
+            Map<String,int[]> index = indexes.get(attribute);
+            if (index == null) {
+                index = buildIndex(result.getFieldIndex(attribute));
+                indexes.putIfAbsent(attribute, index);
+            }
+            return index;
+        }
+
+        private Map<String,int[]> buildIndex(int column) {
+            int rowCount = result.getRowCount();
+            Map<String,Integer> counts = new HashMap<String,Integer>();
+            for (int row = 0; row < rowCount; row++) {
+                Object value = result.getRawValue(row, column);
+                if (value != null) {
+                    Integer count = counts.get(value.toString());
+                    counts.put(value.toString(), count == null ? 1 : count + 1);
+                }
+            }
+            Map<String,int[]> index = new HashMap<String,int[]>(counts.size() * 4 / 3 + 1);
+            Map<String,Integer> filled = new HashMap<String,Integer>(counts.size() * 4 / 3 + 1);
+            for (int row = 0; row < rowCount; row++) {
+                Object value = result.getRawValue(row, column);
+                if (value != null) {
+                    String key = value.toString();
+                    int[] rows = index.get(key);
+                    if (rows == null) {
+                        rows = new int[counts.get(key)];
+                        index.put(key, rows);
+                        filled.put(key, 0);
+                    }
+                    int position = filled.get(key);
+                    rows[position] = row;
+                    filled.put(key, position + 1);
+                }
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.List;
+
+/**
+ * A point in time copy of the counters of one operation on one structure, see AveksaMetrics.
+ */
+public class AveksaOperationStats {
+
+    private final String structure;
+    private final String operation;
+    private final long requests;
+    private final long errors;
+    private final long aveksaRequests;
+    private final long unauthorized;
+    private final long notFound;
+    private final long preconditionFailed;
+    private final long serverErrors;
+    private final long otherErrors;
+    private final long responseBytes;
+    private final long decodedBytes;
+    private final long compressedResponses;
+    private final long rows;
+    private final List<AveksaLatencyStats> latencies;
+
+    public AveksaOperationStats(String structure, String operation, long requests, long errors,
+        long aveksaRequests, long unauthorized, long notFound, long preconditionFailed, long serverErrors,
+        long otherErrors, long responseBytes, long decodedBytes, long compressedResponses, long rows,
+        List<AveksaLatencyStats> latencies) {
+        this.structure = structure;
+        this.operation = operation;
+        this.requests = requests;
+        this.errors = errors;
+        this.aveksaRequests = aveksaRequests;
+        this.unauthorized = unauthorized;
+        this.notFound = notFound;
+        this.preconditionFailed = preconditionFailed;
+        this.serverErrors = serverErrors;
+        this.otherErrors = otherErrors;
+        this.responseBytes = responseBytes;
+        this.decodedBytes = decodedBytes;
+        this.compressedResponses = compressedResponses;
+        this.rows = rows;
+        this.latencies = latencies;
+    }
+
+    public String getStructure() {
+        return structure;
+    }
+
+    /** Returns COUNT, RETRIEVE, SEARCH or SYNC (mirror refreshes). */
+    public String getOperation() {
+        return operation;
+    }
+
+    /** Returns the number of bridge calls, including those answered by the cache or mirror. */
+    public long getRequests() {
+        return requests;
+    }
+
+    /** Returns the number of bridge calls that failed. */
+    public long getErrors() {
+        return errors;
+    }
+
+    /** Returns the number of requests sent to Aveksa, including retries after a 401. */
+    public long getAveksaRequests() {
+        return aveksaRequests;
+    }
+
+    /** Returns the number of 401 responses. */
+    public long getUnauthorized() {
+        return unauthorized;
+    }
+
+    /** Returns the number of 404 responses. */
+    public long getNotFound() {
+        return notFound;
+    }
+
+    /** Returns the number of 412 responses. */
+    public long getPreconditionFailed() {
+        return preconditionFailed;
+    }
+
+    /** Returns the number of 5xx responses. */
+    public long getServerErrors() {
+        return serverErrors;
+    }
+
+    /** Returns the number of failed responses with any other status. */
+    public long getOtherErrors() {
+        return otherErrors;
+    }
+
+    /** Returns the size of the response bodies as sent by Aveksa, compressed or not. */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /** Returns the size of the response bodies after decompression. */
+    public long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    /** Returns the number of responses Aveksa sent compressed. */
+    public long getCompressedResponses() {
+        return compressedResponses;
+    }
+
+    /** Returns how many times smaller the responses were on the wire, 1 when none were compressed. */
+    public double getCompressionRatio() {
+        return responseBytes == 0 ? 1 : (double)decodedBytes / responseBytes;
+    }
+
+    /** Returns the number of rows returned to the bridge. */
+    public long getRows() {
+        return rows;
+    }
+
+    /** Returns the latency of each phase, see AveksaMetrics.Phase. */
+    public List<AveksaLatencyStats> getLatencies() {
+        return latencies;
+    }
+}
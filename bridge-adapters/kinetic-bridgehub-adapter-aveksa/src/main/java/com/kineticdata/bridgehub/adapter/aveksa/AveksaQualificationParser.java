@@ -4,6 +4,7 @@ import com.kineticdata.bridgehub.adapter.QualificationParser;
 
 public class AveksaQualificationParser extends QualificationParser {
     public String encodeParameter(String name, String value) {
-        return value;
+        // Parameter values end up in the command url's query string
+        return AveksaQueryTemplate.encodeValue(value);
     }
 }
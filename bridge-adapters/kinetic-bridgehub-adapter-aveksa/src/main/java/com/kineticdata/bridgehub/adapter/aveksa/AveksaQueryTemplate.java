@@ -0,0 +1,165 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.QualificationParser;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bridge query such as {@code status=Active&name=<%=parameter["Name"]%>} compiled once into its
+ * constant text and the parameters between it. Resolving the template only joins the constants
+ * with the URL encoded parameter values, so the query does not have to be matched against the
+ * parameter pattern on every call.
+ *
+ * The constants are the query string syntax written in the bridge model, so '&', '=' and '%' in
+ * them are kept as they are and only characters that are not allowed in a URL, such as spaces,
+ * are encoded. Parameter values are fully encoded so that '&', '=' or spaces in a value can not
+ * change the meaning of the query.
+ */
+public class AveksaQueryTemplate {
+
+    private static final Pattern PARAMETER_PATTERN = Pattern.compile(QualificationParser.PARAMETER_PATTERN);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /** The constant text around the parameters, one more than there are parameters. */
+    private final String[] segments;
+    private final String[] parameterNames;
+    private final int constantLength;
+
+    private AveksaQueryTemplate(String[] segments, String[] parameterNames) {
+        this.segments = segments;
+        this.parameterNames = parameterNames;
+        int length = 0;
+        for (String segment : segments) {
+            length += segment.length();
+        }
+        this.constantLength = length;
+    }
+
+    public static AveksaQueryTemplate compile(String query) {
+        List<String> segments = new ArrayList<String>();
+        List<String> parameterNames = new ArrayList<String>();
+        String text = query == null ? "" : query;
+        Matcher matcher = PARAMETER_PATTERN.matcher(text);
+        int position = 0;
+        while (matcher.find()) {
+            segments.add(encodeConstant(text.substring(position, matcher.start())));
+            parameterNames.add(matcher.group(1));
+            position = matcher.end();
+        }
+        segments.add(encodeConstant(text.substring(position)));
+        return new AveksaQueryTemplate(segments.toArray(new String[segments.size()]),
+            parameterNames.toArray(new String[parameterNames.size()]));
+    }
+
+    /**
+     * Returns the query with every parameter replaced by its encoded value, failing the same way
+     * the bridgehub QualificationParser does for missing parameters.
+     */
+    public String resolve(Map<String,String> parameters) throws BridgeError {
+        if (parameterNames.length == 0) {
+            return segments[0];
+        }
+        StringBuilder result = new StringBuilder(constantLength + 16 * parameterNames.length);
+        result.append(segments[0]);
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (parameters == null) {
+                throw new BridgeError("Unable to parse qualification, the '" + parameterNames[i]
+                    + "' parameter was referenced but no parameters were provided.");
+            }
+            String value = parameters.get(parameterNames[i]);
+            if (value == null) {
+                throw new BridgeError("Unable to parse qualification, the '" + parameterNames[i]
+                    + "' parameter was referenced but not provided.");
+            }
+            appendEncodedValue(result, value);
+            result.append(segments[i + 1]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * URL encodes a parameter value the way java.net.URLEncoder does with UTF-8, returning the
+     * value itself when nothing needs encoding.
+     */
+    public static String encodeValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (!isUnreserved(value.charAt(i))) {
+                StringBuilder result = new StringBuilder(value.length() + 16);
+                appendEncodedValue(result, value);
+                return result.toString();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Encodes the characters of a query string constant that are not allowed in a URL, keeping
+     * the query syntax and any existing escapes.
+     */
+    public static String encodeConstant(String value) {
+        StringBuilder result = null;
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            boolean allowed = character > ' ' && character < 127 && "\"<>\\^`{|}#".indexOf(character) < 0;
+            if (!allowed && result == null) {
+                result = new StringBuilder(value.length() + 16).append(value, 0, i);
+            }
+            if (result != null) {
+                if (allowed) {
+                    result.append(character);
+                } else {
+                    int end = Character.isHighSurrogate(character) && i + 1 < value.length() ? i + 2 : i + 1;
+                    appendPercentEncoded(result, value.substring(i, end));
+                    i = end - 1;
+                }
+            }
+        }
+        return result == null ? value : result.toString();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static boolean isUnreserved(char character) {
+        return (character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')
+            || (character >= '0' && character <= '9') || character == '.' || character == '-'
+            || character == '*' || character == '_';
+    }
+
+    private static void appendEncodedValue(StringBuilder result, String value) {
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            if (!isUnreserved(character)) {
+                result.append(value, start, i);
+                if (character == ' ') {
+                    result.append('+');
+                    start = i + 1;
+                } else {
+                    // Encode the whole run of reserved characters so surrogate pairs stay together
+                    int end = i + 1;
+                    while (end < value.length() && !isUnreserved(value.charAt(end)) && value.charAt(end) != ' ') {
+                        end++;
+                    }
+                    appendPercentEncoded(result, value.substring(i, end));
+                    start = end;
+                    i = end - 1;
+                }
+            }
+        }
+        result.append(value, start, value.length());
+    }
+
+    private static void appendPercentEncoded(StringBuilder result, String characters) {
+        for (byte value : characters.getBytes(UTF_8)) {
+            result.append('%').append(HEX[(value >> 4) & 0xF]).append(HEX[value & 0xF]);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * A read only window over the rows of an AveksaResult that creates each Record only when it is
+ * read. The Record maps are views over the shared columns, so no per row collections are copied.
+ */
+public class AveksaRecordList extends AbstractList<Record> implements RandomAccess {
+
+    private final AveksaResult result;
+    private final List<String> fields;
+    private final int[] columns;
+    private final int fromIndex;
+    private final int size;
+
+    public AveksaRecordList(AveksaResult result, List<String> fields, int fromIndex, int toIndex) {
+        this.result = result;
+        this.fields = fields;
+        this.columns = new int[fields.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = result.getFieldIndex(fields.get(i));
+        }
+        this.fromIndex = fromIndex;
+        this.size = toIndex - fromIndex;
+    }
+
+    @Override
+    public Record get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return new Record(new RowMap(result.getRowIndex(fromIndex + index)));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The field to value map of one row, in field order. Fields the result does not contain map
+     * to null, matching a column Aveksa did not return.
+     */
+    private class RowMap extends AbstractMap<String,Object> {
+        private final int row;
+
+        private RowMap(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int position = fields.indexOf(key);
+            return position < 0 ? null : valueAt(position);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return fields.contains(key);
+        }
+
+        @Override
+        public int size() {
+            return columns.length;
+        }
+
+        @Override
+        public Set<Map.Entry<String,Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String,Object>>() {
+                @Override
+                public int size() {
+                    return columns.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<String,Object>> iterator() {
+                    return new Iterator<Map.Entry<String,Object>>() {
+                        private int position;
+
+                        @Override
+                        public boolean hasNext() {
+                            return position < columns.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String,Object> next() {
+                            if (position >= columns.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String,Object> entry = new AbstractMap.SimpleImmutableEntry<String,Object>(
+                                fields.get(position), valueAt(position));
+                            position++;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        private Object valueAt(int position) {
+            return columns[position] < 0 ? null : result.getRawValue(row, columns[position]);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent identical Aveksa requests into one. The first caller for a key sends the
+ * request, and callers that arrive with the same key while it is outstanding wait for it and
+ * receive the same parsed result (or the same error). Nothing is retained once the request
+ * completes, caching results for later callers is left to the AveksaResultCache.
+ */
+public class AveksaRequestCoalescer {
+
+    private final ConcurrentHashMap<String,FutureTask<AveksaResult>> inFlight =
+        new ConcurrentHashMap<String,FutureTask<AveksaResult>>();
+
+    /**
+     * Wraps a loader so that concurrent loads with the same key share one call to the loader.
+     */
+    public AveksaResultCache.Loader coalesce(final String key, final AveksaResultCache.Loader loader) {
+        return new AveksaResultCache.Loader() {
+            @Override
+            public AveksaResult load() throws BridgeError {
+                return execute(key, loader);
+            }
+        };
+    }
+
+    /**
+     * Runs the loader, or joins the identical load that is already running.
+     */
+    public AveksaResult execute(String key, final AveksaResultCache.Loader loader) throws BridgeError {
+        FutureTask<AveksaResult> task = new FutureTask<AveksaResult>(new Callable<AveksaResult>() {
+            @Override
+            public AveksaResult call() throws BridgeError {
+                return loader.load();
+            }
+        });
+
+        FutureTask<AveksaResult> outstanding = inFlight.putIfAbsent(key, task);
+        if (outstanding == null) {
+            outstanding = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return outstanding.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BridgeError) {
+                throw (BridgeError)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new BridgeError(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for an identical Aveksa request.", e);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Consumes the body of a successful Aveksa command response as it streams off the connection.
+ */
+public interface AveksaResponseHandler {
+    void parse(InputStream content, Charset charset) throws IOException, ParseException;
+}
@@ -0,0 +1,276 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Streams an Aveksa find command response, which has the form
+ * {"find<Structure>":[{...},{...}],"Total":n,...}, and keeps only the selected columns of each
+ * row. The body is read token by token so the raw payload is never held in memory.
+ *
+ * Values are collected by column. Repeated values within a column, such as a status or a
+ * department, are replaced by the first equal instance so duplicates can be collected straight
+ * away. Columns with too many distinct values for that to pay off stop being deduplicated.
+ *
+ * A column holding an object or an array is built into a JSONObject or JSONArray, as a
+ * non-streaming parse would return it. Nested values of columns that are not kept are skipped.
+ */
+public class AveksaResponseParser implements AveksaResponseHandler, ContentHandler {
+
+    /** The top level key Aveksa uses for the number of matching rows. */
+    public static final String TOTAL_KEY = "Total";
+
+    /** The number of distinct values after which a column is no longer deduplicated. */
+    private static final int MAX_SHARED_VALUES = 256;
+
+    private final String command;
+    private final int maxRows;
+    private final boolean collectAllFields;
+    private final List<String> fields;
+    private final Map<String,Integer> fieldIndexes = new HashMap<String,Integer>();
+    private final List<Column> columns = new ArrayList<Column>();
+    private int rowCount;
+    private Long total;
+
+    // Parsing state: depth 1 is the root object, 2 the command array and 3 a row object
+    private int depth;
+    private String rootKey;
+    private boolean inCommand;
+    private Column column;
+    // The nested objects and arrays being built for the current column, innermost first
+    private final LinkedList<Object> nestedValues = new LinkedList<Object>();
+    private final LinkedList<String> nestedKeys = new LinkedList<String>();
+
+    /**
+     * @param command the find command whose result array holds the rows
+     * @param fields the columns to keep, or null to keep every column that is returned
+     * @param maxRows the number of rows after which parsing stops, or -1 for no limit
+     */
+    public AveksaResponseParser(String command, List<String> fields, int maxRows) {
+        this.command = command;
+        this.maxRows = maxRows;
+        this.collectAllFields = fields == null;
+        this.fields = new ArrayList<String>();
+        if (fields != null) {
+            for (String field : fields) {
+                addField(field);
+            }
+        }
+    }
+
+    @Override
+    public void parse(InputStream content, Charset charset) throws IOException, ParseException {
+        new JSONParser().parse(new InputStreamReader(content, charset), this);
+    }
+
+    /** Returns the parsed columns and rows. */
+    public AveksaResult getResult() {
+        Object[][] values = new Object[columns.size()][];
+        long bytes = 64;
+        for (int i = 0; i < values.length; i++) {
+            Column parsed = columns.get(i);
+            values[i] = Arrays.copyOf(parsed.values, rowCount);
+            bytes += parsed.bytes + 8L * rowCount + 2L * fields.get(i).length();
+        }
+        return AveksaResult.ofColumns(fields, values, rowCount, bytes);
+    }
+
+    /** Returns the Total reported by Aveksa, or null if the response did not include one. */
+    public Long getTotal() {
+        return total;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * CONTENT HANDLER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    @Override
+    public void startJSON() {}
+
+    @Override
+    public void endJSON() {}
+
+    @Override
+    public boolean startObject() {
+        depth++;
+        if (depth > 3 && inCommand && column != null) {
+            startNested(new JSONObject());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObject() {
+        boolean keepParsing = true;
+        if (depth > 3 && !nestedValues.isEmpty()) {
+            endNested();
+        } else if (depth == 3 && inCommand) {
+            rowCount++;
+            keepParsing = maxRows < 0 || rowCount <= maxRows;
+        }
+        depth--;
+        return keepParsing;
+    }
+
+    @Override
+    public boolean startObjectEntry(String key) {
+        if (depth == 1) {
+            rootKey = key;
+        } else if (depth > 3 && !nestedValues.isEmpty()) {
+            nestedKeys.push(key);
+        } else if (depth == 3 && inCommand) {
+            Integer index = fieldIndexes.get(key);
+            if (index == null && collectAllFields) {
+                index = addField(key);
+            }
+            column = index == null ? null : columns.get(index);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endObjectEntry() {
+        if (depth > 3 && !nestedValues.isEmpty()) {
+            nestedKeys.pop();
+        } else if (depth == 3) {
+            column = null;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startArray() {
+        depth++;
+        if (depth == 2 && command.equals(rootKey)) {
+            inCommand = true;
+        } else if (depth > 3 && inCommand && column != null) {
+            startNested(new JSONArray());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endArray() {
+        if (depth > 3 && !nestedValues.isEmpty()) {
+            endNested();
+        } else if (depth == 2) {
+            inCommand = false;
+        }
+        depth--;
+        return true;
+    }
+
+    @Override
+    public boolean primitive(Object value) {
+        if (!nestedValues.isEmpty()) {
+            addNested(value);
+        } else if (depth == 3 && inCommand && column != null) {
+            column.set(rowCount, value);
+        } else if (depth == 1 && TOTAL_KEY.equals(rootKey) && value != null) {
+            total = value instanceof Number ? ((Number)value).longValue() : parseTotal(value.toString());
+        }
+        return true;
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private Integer addField(String field) {
+        Integer index = fieldIndexes.get(field);
+        if (index == null) {
+            index = fields.size();
+            fields.add(field);
+            fieldIndexes.put(field, index);
+            columns.add(new Column());
+        }
+        return index;
+    }
+
+    private void startNested(Object container) {
+        if (!nestedValues.isEmpty()) {
+            addNested(container);
+        }
+        nestedValues.push(container);
+    }
+
+    /** Finishes the innermost nested value, storing it in the column once the outermost one ends. */
+    private void endNested() {
+        Object value = nestedValues.pop();
+        if (nestedValues.isEmpty()) {
+            column.set(rowCount, value);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addNested(Object value) {
+        Object parent = nestedValues.peek();
+        if (parent instanceof JSONArray) {
+            ((JSONArray)parent).add(value);
+        } else {
+            ((JSONObject)parent).put(nestedKeys.peek(), value);
+        }
+    }
+
+    private static Long parseTotal(String value) {
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The values of one column, grown as rows are parsed.
+     */
+    private static class Column {
+        private Object[] values = new Object[16];
+        private Map<Object,Object> sharedValues = new HashMap<Object,Object>();
+        private long bytes;
+
+        private void set(int row, Object value) {
+            if (row >= values.length) {
+                values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+            }
+            values[row] = share(value);
+        }
+
+        private Object share(Object value) {
+            if (value == null) {
+                return null;
+            }
+            if (sharedValues != null) {
+                Object shared = sharedValues.get(value);
+                if (shared != null) {
+                    return shared;
+                } else if (sharedValues.size() < MAX_SHARED_VALUES) {
+                    sharedValues.put(value, value);
+                } else {
+                    sharedValues = null;
+                }
+            }
+            if (value instanceof String) {
+                bytes += 40 + 2L * ((String)value).length();
+            } else if (value instanceof Map || value instanceof List) {
+                // A rough estimate for nested values, which are rare
+                bytes += 40 + 4L * value.toString().length();
+            } else {
+                bytes += 16;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.Record;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of an Aveksa find command: either the selected columns of every matching row, or
+ * only the number of matching rows when the command was issued for a count. Results are shared
+ * between callers once cached, so they must not be modified after they are built.
+ *
+ * Values are stored by column under a single field list rather than as one map per row, and
+ * sorting only reorders an index over the rows. Records are created from the columns as they are
+ * read, see {@link #toRecords(List, int, int)}.
+ */
+public class AveksaResult {
+
+    private final List<String> fields;
+    private final Map<String,Integer> fieldIndexes;
+    private final Object[][] columns;
+    private final int[] rowIndex;
+    private final int rowCount;
+    private final long count;
+    private final long bytes;
+
+    private AveksaResult(List<String> fields, Map<String,Integer> fieldIndexes, Object[][] columns,
+        int[] rowIndex, int rowCount, long count, long bytes) {
+        this.fields = fields;
+        this.fieldIndexes = fieldIndexes;
+        this.columns = columns;
+        this.rowIndex = rowIndex;
+        this.rowCount = rowCount;
+        this.count = count;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @param fields the column names, in the same order as the columns
+     * @param columns the values of each column, at least rowCount long
+     * @param rowCount the number of rows
+     * @param bytes an estimate of the heap used by the values
+     */
+    public static AveksaResult ofColumns(List<String> fields, Object[][] columns, int rowCount, long bytes) {
+        Map<String,Integer> fieldIndexes = new HashMap<String,Integer>();
+        for (int i = 0; i < fields.size(); i++) {
+            fieldIndexes.put(fields.get(i), i);
+        }
+        return new AveksaResult(Collections.unmodifiableList(fields), fieldIndexes, columns, null,
+            rowCount, rowCount, bytes);
+    }
+
+    public static AveksaResult ofCount(long count) {
+        return new AveksaResult(null, null, null, null, 0, count, 0);
+    }
+
+    /** Returns false for count results, which carry no rows. */
+    public boolean hasRows() {
+        return columns != null;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+
+    /** Returns the position of a field within getFields(), or -1 if it was not returned. */
+    public int getFieldIndex(String field) {
+        Integer index = fieldIndexes.get(field);
+        return index == null ? -1 : index;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /** Returns the value of a column for the row at the given (sorted) position. */
+    public Object getValue(int row, int column) {
+        return columns[column][rowIndex == null ? row : rowIndex[row]];
+    }
+
+    /**
+     * Returns a result over the same columns with the rows sorted by the given bridge order.
+     */
+    public AveksaResult sort(Map<String,String> order) {
+        Integer[] sorted = new Integer[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            sorted[i] = rowIndex == null ? i : rowIndex[i];
+        }
+        Arrays.sort(sorted, new AveksaRowComparator(this, order));
+        int[] sortedIndex = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            sortedIndex[i] = sorted[i];
+        }
+        return new AveksaResult(fields, fieldIndexes, columns, sortedIndex, rowCount, count, bytes + 4L * rowCount);
+    }
+
+    /**
+     * Returns a result over the same columns holding only the given physical rows, in order.
+     */
+    public AveksaResult select(int[] rows) {
+        return new AveksaResult(fields, fieldIndexes, columns, rows, rows.length, rows.length, bytes + 4L * rows.length);
+    }
+
+    /**
+     * Returns true if the other result holds the same fields and the same values in the same
+     * rows, ignoring any sorting.
+     */
+    public boolean hasSameRows(AveksaResult other) {
+        if (!hasRows() || !other.hasRows() || rowCount != other.rowCount || !fields.equals(other.fields)) {
+            return false;
+        }
+        for (int column = 0; column < columns.length; column++) {
+            for (int row = 0; row < rowCount; row++) {
+                Object value = columns[column][row];
+                Object otherValue = other.columns[column][row];
+                if (value == null ? otherValue != null : !value.equals(otherValue)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the rows from fromIndex (inclusive) to toIndex (exclusive) as Records holding the
+     * given fields. The list and its Records read straight from the columns, a Record is only
+     * created when the list element is read.
+     */
+    public List<Record> toRecords(List<String> recordFields, int fromIndex, int toIndex) {
+        return new AveksaRecordList(this, recordFields, fromIndex, toIndex);
+    }
+
+    /**
+     * Returns the row at the given position as a Record holding the given fields.
+     */
+    public Record toRecord(List<String> recordFields, int row) {
+        return toRecords(recordFields, row, row + 1).get(0);
+    }
+
+    /**
+     * Returns the physical row a sorted position refers to.
+     */
+    int getRowIndex(int row) {
+        return rowIndex == null ? row : rowIndex[row];
+    }
+
+    /**
+     * Returns the value of a column for a physical row, ignoring any sorting.
+     */
+    Object getRawValue(int rowIndex, int column) {
+        return columns[column][rowIndex];
+    }
+
+    /**
+     * Returns a rough estimate of the heap used by this result, used to bound the cache size.
+     */
+    public long estimateBytes() {
+        return bytes;
+    }
+}
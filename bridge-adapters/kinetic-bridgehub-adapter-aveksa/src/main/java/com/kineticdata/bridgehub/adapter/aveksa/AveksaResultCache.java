@@ -0,0 +1,410 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory cache of Aveksa find command results, keyed by the resolved filter and the
+ * returned columns. Each structure has its own least recently used segment with its own time to
+ * live, entry and size limits. Entries that have just expired are still served for the stale
+ * window while a background refresh replaces them, so hot queries never wait on Aveksa. When
+ * Aveksa fails, an expired entry that has not been evicted yet is returned for up to the fallback
+ * window instead of the error.
+ *
+ * Counts are answered from a cached row result for the same filter when there is one, so a
+ * count and a search over the same query share a single Aveksa call.
+ *
+ * The entries can be listed and restored along with their expiry times, which is how the
+ * AveksaCacheSnapshot carries the cache across restarts.
+ */
+public class AveksaResultCache {
+
+    /** Loads a result from Aveksa when the cache cannot answer. */
+    public interface Loader {
+        AveksaResult load() throws BridgeError;
+    }
+
+    /** Receives the cached entries, see visitEntries. Times are in epoch milliseconds. */
+    public interface EntryVisitor {
+        void visit(String structure, String key, String filter, AveksaResult result, long expiresAt,
+            long staleUntil, long fallbackUntil) throws IOException;
+    }
+
+    /** The limits applied to the cached results of one structure. */
+    public static class Settings {
+        private final long ttlMillis;
+        private final long staleMillis;
+        private final long fallbackMillis;
+        private final int maxEntries;
+        private final long maxBytes;
+
+        public Settings(long ttlSeconds, long staleSeconds, long fallbackSeconds, int maxEntries, long maxBytes) {
+            this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+            this.staleMillis = TimeUnit.SECONDS.toMillis(staleSeconds);
+            this.fallbackMillis = TimeUnit.SECONDS.toMillis(fallbackSeconds);
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+        }
+
+        public boolean isEnabled() {
+            return ttlMillis > 0 && maxEntries > 0 && maxBytes > 0;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaResultCache.class);
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final Settings defaultSettings;
+    private final Map<String,Settings> structureSettings;
+    private final ConcurrentHashMap<String,Segment> segments = new ConcurrentHashMap<String,Segment>();
+    private final ThreadPoolExecutor refresher;
+
+    public AveksaResultCache(Settings defaultSettings, Map<String,Settings> structureSettings) {
+        this.defaultSettings = defaultSettings;
+        this.structureSettings = structureSettings;
+        this.refresher = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(100), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "aveksa-cache-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Parses per structure overrides of the default settings, in the form
+     * {@code Users:ttl=600,stale=60,fallback=3600,entries=5000,bytes=52428800;Groups:ttl=0}.
+     * Options that are left out keep their default value.
+     */
+    public static Map<String,Settings> parseStructureSettings(String value, Settings defaults,
+        String propertyName) throws BridgeError {
+        Map<String,Settings> result = new HashMap<String,Settings>();
+        if (value == null || value.trim().isEmpty()) {
+            return result;
+        }
+        for (String structureValue : value.split(";")) {
+            if (structureValue.trim().isEmpty()) {
+                continue;
+            }
+            int separator = structureValue.indexOf(':');
+            if (separator < 1) {
+                throw invalidSettings(propertyName, structureValue);
+            }
+            long ttl = TimeUnit.MILLISECONDS.toSeconds(defaults.ttlMillis);
+            long stale = TimeUnit.MILLISECONDS.toSeconds(defaults.staleMillis);
+            long fallback = TimeUnit.MILLISECONDS.toSeconds(defaults.fallbackMillis);
+            long entries = defaults.maxEntries;
+            long bytes = defaults.maxBytes;
+            for (String option : structureValue.substring(separator + 1).split(",")) {
+                String[] pair = option.split("=", 2);
+                try {
+                    String name = pair[0].trim();
+                    long number = Long.parseLong(pair[1].trim());
+                    if (number < 0) {
+                        throw invalidSettings(propertyName, structureValue);
+                    } else if (name.equals("ttl")) {
+                        ttl = number;
+                    } else if (name.equals("stale")) {
+                        stale = number;
+                    } else if (name.equals("fallback")) {
+                        fallback = number;
+                    } else if (name.equals("entries")) {
+                        entries = Math.min(number, Integer.MAX_VALUE);
+                    } else if (name.equals("bytes")) {
+                        bytes = number;
+                    } else {
+                        throw invalidSettings(propertyName, structureValue);
+                    }
+                } catch (RuntimeException e) {
+                    throw invalidSettings(propertyName, structureValue);
+                }
+            }
+            result.put(structureValue.substring(0, separator).trim(), new Settings(ttl, stale, fallback, (int)entries, bytes));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows matching the filter, loading them if they are not cached.
+     */
+    public AveksaResult getRows(String structure, String filter, List<String> fields, Loader loader) throws BridgeError {
+        return lookup(structure, "rows" + KEY_SEPARATOR + filter + KEY_SEPARATOR + fields, filter, loader);
+    }
+
+    /**
+     * Returns the result of a single match lookup. These are kept apart from other row results
+     * because the lookup stops reading once a second match is found.
+     */
+    public AveksaResult getSingle(String structure, String filter, List<String> fields, Loader loader) throws BridgeError {
+        return lookup(structure, "single" + KEY_SEPARATOR + filter + KEY_SEPARATOR + fields, null, loader);
+    }
+
+    /**
+     * Returns the rows matching the filter in the given order, loading them if they are not
+     * cached. An empty order caches the rows as Aveksa returned them.
+     */
+    public AveksaResult getSorted(String structure, String filter, List<String> fields, String order, Loader loader) throws BridgeError {
+        return lookup(structure, "sorted" + KEY_SEPARATOR + filter + KEY_SEPARATOR + fields + KEY_SEPARATOR + order, null, loader);
+    }
+
+    /**
+     * Returns the number of rows matching the filter, taken from a cached count or from any
+     * fresh cached row result for the same filter, and loaded otherwise.
+     */
+    public AveksaResult getCount(String structure, String filter, Loader loader) throws BridgeError {
+        Segment segment = getSegment(structure);
+        if (segment != null) {
+            CacheEntry shared = segment.getRowsForFilter(filter);
+            if (shared != null && System.currentTimeMillis() < shared.expiresAt) {
+                return shared.result;
+            }
+        }
+        return lookup(structure, "count" + KEY_SEPARATOR + filter, null, loader);
+    }
+
+    /**
+     * Passes every entry that can still be returned to the visitor, the least recently used entries
+     * of each structure first. The entries are copied before they are visited, so a slow visitor
+     * does not hold up the cache.
+     */
+    public void visitEntries(EntryVisitor visitor) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String,Segment> segment : segments.entrySet()) {
+            List<Map.Entry<String,CacheEntry>> entries;
+            Map<String,String> filters;
+            synchronized (segment.getValue()) {
+                entries = new ArrayList<Map.Entry<String,CacheEntry>>(segment.getValue().entries.entrySet());
+                filters = new HashMap<String,String>(segment.getValue().filtersByRowKey);
+            }
+            for (Map.Entry<String,CacheEntry> entry : entries) {
+                CacheEntry value = entry.getValue();
+                if (now < value.fallbackUntil) {
+                    visitor.visit(segment.getKey(), entry.getKey(), filters.get(entry.getKey()), value.result,
+                        value.expiresAt, value.staleUntil, value.fallbackUntil);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds an entry listed by visitEntries back into the cache, unless the structure is no longer
+     * cached, the entry has been loaded again since or it can no longer be returned. Times are
+     * shortened to the current settings if those are shorter.
+     */
+    public void restore(String structure, String key, String filter, AveksaResult result, long expiresAt,
+        long staleUntil, long fallbackUntil) {
+        Segment segment = getSegment(structure);
+        if (segment == null) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(result, segment.settings, expiresAt, staleUntil, fallbackUntil);
+        if (System.currentTimeMillis() < entry.fallbackUntil) {
+            segment.putIfAbsent(key, filter, entry);
+        }
+    }
+
+    /**
+     * Stops any background refreshes.
+     */
+    public void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * @param filter the filter to index a row result under so counts can share it, or null
+     */
+    private AveksaResult lookup(String structure, String key, String filter, Loader loader) throws BridgeError {
+        Segment segment = getSegment(structure);
+        if (segment == null) {
+            return loader.load();
+        }
+
+        long now = System.currentTimeMillis();
+        CacheEntry entry = segment.get(key);
+        if (entry != null) {
+            if (now < entry.expiresAt) {
+                return entry.result;
+            } else if (now < entry.staleUntil) {
+                refreshInBackground(segment, key, filter, entry, loader);
+                return entry.result;
+            }
+        }
+        try {
+            return load(segment, key, filter, loader);
+        } catch (BridgeError e) {
+            // A query that has been answered before only fails again when Aveksa is unavailable
+            if (entry != null && System.currentTimeMillis() < entry.fallbackUntil) {
+                logger.warn("Returning an expired cached Aveksa result because it could not be reloaded: " + e.getMessage());
+                return entry.result;
+            }
+            throw e;
+        }
+    }
+
+    private AveksaResult load(Segment segment, String key, String filter, Loader loader) throws BridgeError {
+        AveksaResult result = loader.load();
+        segment.put(key, filter, new CacheEntry(result, segment.settings));
+        return result;
+    }
+
+    private void refreshInBackground(final Segment segment, final String key, final String filter,
+        final CacheEntry entry, final Loader loader) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(segment, key, filter, loader);
+                    } catch (Exception e) {
+                        // Keep serving the stale entry until it falls out of the stale window
+                        logger.warn("Unable to refresh a cached Aveksa result.", e);
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private Segment getSegment(String structure) {
+        Segment segment = segments.get(structure);
+        if (segment == null) {
+            Settings settings = structureSettings.get(structure);
+            if (settings == null) {
+                settings = defaultSettings;
+            }
+            if (!settings.isEnabled()) {
+                return null;
+            }
+            Segment existing = segments.putIfAbsent(structure, segment = new Segment(settings));
+            if (existing != null) {
+                segment = existing;
+            }
+        }
+        return segment;
+    }
+
+    private static BridgeError invalidSettings(String propertyName, String value) {
+        return new BridgeError("Invalid Property: '" + propertyName + "' contains the invalid structure settings '" + value + "'.");
+    }
+
+    private static class CacheEntry {
+        private final AveksaResult result;
+        private final long bytes;
+        private final long expiresAt;
+        private final long staleUntil;
+        private final long fallbackUntil;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private CacheEntry(AveksaResult result, Settings settings) {
+            this.result = result;
+            this.bytes = result.estimateBytes();
+            this.expiresAt = System.currentTimeMillis() + settings.ttlMillis;
+            this.staleUntil = expiresAt + settings.staleMillis;
+            this.fallbackUntil = staleUntil + settings.fallbackMillis;
+        }
+
+        private CacheEntry(AveksaResult result, Settings settings, long expiresAt, long staleUntil, long fallbackUntil) {
+            CacheEntry current = new CacheEntry(result, settings);
+            this.result = result;
+            this.bytes = current.bytes;
+            this.expiresAt = Math.min(expiresAt, current.expiresAt);
+            this.staleUntil = Math.min(staleUntil, current.staleUntil);
+            this.fallbackUntil = Math.min(fallbackUntil, current.fallbackUntil);
+        }
+    }
+
+    /**
+     * The entries of one structure, kept in access order so the least recently used entries are
+     * evicted first once the entry or size limit is reached.
+     */
+    private static class Segment {
+        private final Settings settings;
+        private final LinkedHashMap<String,CacheEntry> entries = new LinkedHashMap<String,CacheEntry>(16, 0.75f, true);
+        private final Map<String,String> rowKeysByFilter = new HashMap<String,String>();
+        private final Map<String,String> filtersByRowKey = new HashMap<String,String>();
+        private long bytes;
+
+        private Segment(Settings settings) {
+            this.settings = settings;
+        }
+
+        private synchronized CacheEntry get(String key) {
+            return entries.get(key);
+        }
+
+        private synchronized CacheEntry getRowsForFilter(String filter) {
+            String key = rowKeysByFilter.get(filter);
+            return key == null ? null : entries.get(key);
+        }
+
+        /** Adds an entry unless one is already cached under the key. */
+        private synchronized void putIfAbsent(String key, String filter, CacheEntry entry) {
+            if (!entries.containsKey(key)) {
+                put(key, filter, entry);
+            }
+        }
+
+        private synchronized void put(String key, String filter, CacheEntry entry) {
+            remove(key);
+            if (entry.bytes > settings.maxBytes) {
+                return;
+            }
+            entries.put(key, entry);
+            bytes += entry.bytes;
+            if (filter != null) {
+                rowKeysByFilter.put(filter, key);
+                filtersByRowKey.put(key, filter);
+            }
+            Iterator<Map.Entry<String,CacheEntry>> eldest = entries.entrySet().iterator();
+            while ((entries.size() > settings.maxEntries || bytes > settings.maxBytes) && eldest.hasNext()) {
+                Map.Entry<String,CacheEntry> evicted = eldest.next();
+                eldest.remove();
+                bytes -= evicted.getValue().bytes;
+                removeFilter(evicted.getKey());
+            }
+        }
+
+        private void remove(String key) {
+            CacheEntry previous = entries.remove(key);
+            if (previous != null) {
+                bytes -= previous.bytes;
+                removeFilter(key);
+            }
+        }
+
+        private void removeFilter(String key) {
+            String filter = filtersByRowKey.remove(key);
+            if (filter != null && key.equals(rowKeysByFilter.get(filter))) {
+                rowKeysByFilter.remove(filter);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Orders the physical rows of a result by the fields of a bridge order, as returned by
+ * BridgeUtils.parseOrder.
+ * Numbers compare numerically, other values compare as case-insensitive strings and null values
+ * sort before everything else.
+ */
+public class AveksaRowComparator implements Comparator<Integer> {
+
+    private final AveksaResult result;
+    private final int[] columns;
+    private final boolean[] descending;
+
+    public AveksaRowComparator(AveksaResult result, Map<String,String> order) {
+        this.result = result;
+        this.columns = new int[order.size()];
+        this.descending = new boolean[order.size()];
+        int i = 0;
+        for (Map.Entry<String,String> entry : order.entrySet()) {
+            columns[i] = result.getFieldIndex(entry.getKey());
+            descending[i] = "DESC".equalsIgnoreCase(entry.getValue());
+            i++;
+        }
+    }
+
+    @Override
+    public int compare(Integer row1, Integer row2) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i] < 0) {
+                continue;
+            }
+            int comparison = compareValues(result.getRawValue(row1, columns[i]), result.getRawValue(row2, columns[i]));
+            if (comparison != 0) {
+                return descending[i] ? -comparison : comparison;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 == null || value2 == null) {
+            return value1 == null ? (value2 == null ? 0 : -1) : 1;
+        } else if (value1 instanceof Number && value2 instanceof Number) {
+            return Double.compare(((Number)value1).doubleValue(), ((Number)value2).doubleValue());
+        } else {
+            return value1.toString().compareToIgnoreCase(value2.toString());
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.IOException;
+import java.net.Socket;
+import org.apache.http.conn.socket.LayeredConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * The timed socket factory for https, which also times TLS being layered over a connection that
+ * is already open, such as a tunnel through a proxy.
+ */
+public class AveksaTimedLayeredSocketFactory extends AveksaTimedSocketFactory implements LayeredConnectionSocketFactory {
+
+    private final LayeredConnectionSocketFactory delegate;
+    private final AveksaMetrics metrics;
+
+    public AveksaTimedLayeredSocketFactory(LayeredConnectionSocketFactory delegate, AveksaMetrics metrics) {
+        super(delegate, metrics);
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.createLayeredSocket(socket, target, port, context);
+        } finally {
+            metrics.recordConnect(System.nanoTime() - start);
+        }
+    }
+}
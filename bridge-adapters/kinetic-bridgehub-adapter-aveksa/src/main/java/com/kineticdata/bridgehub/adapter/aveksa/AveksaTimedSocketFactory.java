@@ -0,0 +1,40 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Wraps the socket factory of a scheme to record how long opening each connection takes,
+ * including the TLS handshake for https, in the adapter metrics. Schemes that can layer TLS over
+ * an existing connection use AveksaTimedLayeredSocketFactory.
+ */
+public class AveksaTimedSocketFactory implements ConnectionSocketFactory {
+
+    private final ConnectionSocketFactory delegate;
+    private final AveksaMetrics metrics;
+
+    public AveksaTimedSocketFactory(ConnectionSocketFactory delegate, AveksaMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Socket createSocket(HttpContext context) throws IOException {
+        return delegate.createSocket(context);
+    }
+
+    @Override
+    public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+        InetSocketAddress localAddress, HttpContext context) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return delegate.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+        } finally {
+            metrics.recordConnect(System.nanoTime() - start);
+        }
+    }
+}
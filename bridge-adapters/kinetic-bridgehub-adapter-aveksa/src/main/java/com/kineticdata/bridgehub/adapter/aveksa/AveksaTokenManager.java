@@ -0,0 +1,225 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the Aveksa session token for one Aveksa server. Logins are single-flight: when several
+ * callers need a new token at the same time a single login is sent and every caller waits for
+ * its result. The login runs on its own thread, so a caller whose deadline passes can give up
+ * waiting without holding up the others. A failed login is handed to every caller waiting for it
+ * and to any caller in the next couple of seconds, rather than each one sending a login of its
+ * own to a server that is failing them. When a token lifetime is configured the token is also
+ * refreshed in the background shortly before it expires, so bridge calls rarely see a 401.
+ */
+public class AveksaTokenManager {
+
+    /** Performs the actual Aveksa login, returning a token in the form token={token}. */
+    public interface Authenticator {
+        String authenticate() throws BridgeError;
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaTokenManager.class);
+
+    /** How long the failure of a login is returned before another login is sent. */
+    private static final long FAILED_LOGIN_MILLIS = 2000;
+
+    private final Authenticator authenticator;
+    private final long refreshDelayMillis;
+    private final ScheduledExecutorService executor;
+
+    private volatile String token;
+    // Guarded by this
+    private FutureTask<String> login;
+    private BridgeError loginFailure;
+    private long loginFailedAt;
+    private ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     * @param authenticator performs the login
+     * @param lifetimeSeconds how long Aveksa keeps a token valid, or 0 to only log in again
+     *        after a token has been rejected
+     */
+    public AveksaTokenManager(Authenticator authenticator, int lifetimeSeconds) {
+        this.authenticator = authenticator;
+        // Refresh once 90% of the lifetime has passed, leaving room for the login round trip
+        this.refreshDelayMillis = TimeUnit.SECONDS.toMillis(lifetimeSeconds) * 9 / 10;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "aveksa-login");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Logs in straight away so the first bridge call does not pay for the login.
+     */
+    public void initialize() throws BridgeError {
+        refresh(null);
+    }
+
+    /**
+     * Returns the current token, logging in first if there is not one yet.
+     */
+    public String getToken() throws BridgeError {
+        String current = token;
+        return current != null ? current : refresh(null);
+    }
+
+    /**
+     * Called after Aveksa rejected a token with a 401. If another caller has already replaced the
+     * rejected token its replacement is returned, otherwise this caller logs in.
+     */
+    public String tokenRejected(String rejectedToken) throws BridgeError {
+        return refresh(rejectedToken);
+    }
+
+    /**
+     * Stops the background refresh and fails any login still being waited for.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            if (login != null) {
+                login.cancel(true);
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    /**
+     * Waits for a new token unless the token has already changed from the stale one, in which
+     * case the newer token is returned. A login already in progress is waited for rather than
+     * sending another. An interrupt, such as the caller's deadline passing, stops the wait but
+     * not the login, whose token is kept for the next caller.
+     */
+    private String refresh(String staleToken) throws BridgeError {
+        FutureTask<String> pending;
+        boolean started = false;
+        synchronized (this) {
+            String current = token;
+            if (current != null && !current.equals(staleToken)) {
+                return current;
+            }
+            if (login == null) {
+                if (loginFailure != null && System.currentTimeMillis() - loginFailedAt < FAILED_LOGIN_MILLIS) {
+                    throw loginFailure;
+                }
+                login = newLogin();
+                started = true;
+            }
+            pending = login;
+        }
+        if (started) {
+            try {
+                executor.execute(pending);
+            } catch (RejectedExecutionException e) {
+                pending.cancel(false);
+                synchronized (this) {
+                    login = null;
+                }
+                throw new BridgeError("Unable to log in to Aveksa, the adapter has been shut down.");
+            }
+        }
+
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeError("Interrupted while waiting for the Aveksa login.", e);
+        } catch (CancellationException e) {
+            throw new BridgeError("The Aveksa login was cancelled because the adapter has been shut down.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BridgeError) {
+                throw (BridgeError)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new BridgeError(cause);
+        }
+    }
+
+    /** Creates a login that records its token, or its failure, once it completes. */
+    private FutureTask<String> newLogin() {
+        return new FutureTask<String>(new Callable<String>() {
+            @Override
+            public String call() throws BridgeError {
+                String current = null;
+                BridgeError failure = null;
+                try {
+                    current = authenticator.authenticate();
+                    return current;
+                } catch (BridgeError e) {
+                    failure = e;
+                    throw e;
+                } finally {
+                    synchronized (AveksaTokenManager.this) {
+                        if (current != null) {
+                            token = current;
+                            loginFailure = null;
+                            scheduleRefresh();
+                        } else if (failure != null) {
+                            loginFailure = failure;
+                            loginFailedAt = System.currentTimeMillis();
+                        }
+                        login = null;
+                    }
+                }
+            }
+        });
+    }
+
+    /** Must be called while holding the lock on this. */
+    private void scheduleRefresh() {
+        if (refreshDelayMillis == 0 || executor.isShutdown()) {
+            return;
+        }
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+        final String refreshedToken = token;
+        scheduledRefresh = executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                FutureTask<String> pending;
+                synchronized (AveksaTokenManager.this) {
+                    // A caller has already replaced the token or is logging in
+                    if (login != null || !refreshedToken.equals(token)) {
+                        return;
+                    }
+                    pending = login = newLogin();
+                }
+                // Already on the login thread, so the login runs here
+                pending.run();
+                try {
+                    pending.get();
+                } catch (ExecutionException e) {
+                    // The current token stays in use, a rejection will trigger another login
+                    logger.warn("Unable to refresh the Aveksa token ahead of its expiry.", e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, refreshDelayMillis, TimeUnit.MILLISECONDS);
+    }
+}
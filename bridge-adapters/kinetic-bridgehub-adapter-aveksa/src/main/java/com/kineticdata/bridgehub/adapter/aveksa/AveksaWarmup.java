@@ -0,0 +1,279 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Prepares the adapter for its first bridge calls in the background once it has been
+ * initialized, so neither startup nor the first callers pay for it. Each Aveksa node is logged in
+ * to, a number of connections to each node are opened and left in the pool, and then the
+ * configured prefetch queries are searched, which fills the result cache and gets the parsing
+ * code compiled before real traffic arrives.
+ *
+ * Every step is best effort: a node that cannot be reached or a query that fails is logged and
+ * the warm-up carries on. The time each step took is logged once it has finished and the total
+ * is published with the adapter metrics.
+ */
+public class AveksaWarmup {
+
+    /** Runs a prefetch query the same way a bridge search would. */
+    public interface Prefetcher {
+        void prefetch(Query query) throws BridgeError;
+    }
+
+    /** A find query on a structure, searched during the warm-up. */
+    public static class Query {
+        private final String structure;
+        private final List<String> fields;
+        private final String query;
+
+        public Query(String structure, List<String> fields, String query) {
+            this.structure = structure;
+            this.fields = fields;
+            this.query = query;
+        }
+
+        public String getStructure() {
+            return structure;
+        }
+
+        /** Returns the fields to return, or null for the structure's default columns. */
+        public List<String> getFields() {
+            return fields;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        @Override
+        public String toString() {
+            return structure + (fields == null ? "" : fields.toString()) + ":" + query;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AveksaWarmup.class);
+
+    private final List<AveksaEndpoint> endpoints;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final int connections;
+    private final int connectTimeout;
+    private final long keepAliveSeconds;
+    private final List<Query> queries;
+    private final Prefetcher prefetcher;
+    private final AveksaMetrics metrics;
+    private final ExecutorService executor;
+
+    /**
+     * @param endpoints the nodes to log in to and connect to
+     * @param connectionManager the pool the connections are left in
+     * @param connections the connections to open to each node
+     * @param connectTimeout milliseconds to wait for a connection, 0 waits forever
+     * @param keepAliveSeconds how long an opened connection may sit idle in the pool, 0 for no limit
+     * @param queries the queries to prefetch
+     * @param prefetcher runs the queries
+     * @param metrics receives the warm-up time
+     */
+    public AveksaWarmup(List<AveksaEndpoint> endpoints, PoolingHttpClientConnectionManager connectionManager,
+        int connections, int connectTimeout, long keepAliveSeconds, List<Query> queries, Prefetcher prefetcher,
+        AveksaMetrics metrics) {
+        this.endpoints = endpoints;
+        this.connectionManager = connectionManager;
+        this.connections = connections;
+        this.connectTimeout = connectTimeout;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.queries = queries;
+        this.prefetcher = prefetcher;
+        this.metrics = metrics;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "aveksa-warmup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Parses prefetch queries separated by ';', each a structure, optionally followed by a comma
+     * separated list of fields in brackets, then ':' and the query, such as
+     * 'Users[id,name]:status=Active;Groups:name=Administrators'.
+     */
+    public static List<Query> parseQueries(String value, String propertyName) throws BridgeError {
+        List<Query> result = new ArrayList<Query>();
+        if (value == null || value.trim().isEmpty()) {
+            return result;
+        }
+        for (String queryValue : value.split(";")) {
+            if (queryValue.trim().isEmpty()) {
+                continue;
+            }
+            int separator = queryValue.indexOf(':');
+            if (separator < 1) {
+                throw invalidQuery(propertyName, queryValue);
+            }
+            String structure = queryValue.substring(0, separator).trim();
+            List<String> fields = null;
+            int fieldsStart = structure.indexOf('[');
+            if (fieldsStart >= 0) {
+                if (fieldsStart == 0 || !structure.endsWith("]")) {
+                    throw invalidQuery(propertyName, queryValue);
+                }
+                fields = new ArrayList<String>();
+                for (String field : structure.substring(fieldsStart + 1, structure.length() - 1).split(",")) {
+                    if (!field.trim().isEmpty()) {
+                        fields.add(field.trim());
+                    }
+                }
+                structure = structure.substring(0, fieldsStart).trim();
+            }
+            result.add(new Query(structure, fields, queryValue.substring(separator + 1).trim()));
+        }
+        return result;
+    }
+
+    /**
+     * Starts the warm-up in the background.
+     */
+    public void start() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                warmup();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Stops the warm-up if it is still running.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private void warmup() {
+        long start = System.currentTimeMillis();
+
+        // Log in up front so the first bridge call does not take a 401 round trip. The login is
+        // retried on first use for any node that is unavailable now.
+        int loggedIn = 0;
+        for (AveksaEndpoint endpoint : endpoints) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                endpoint.getTokenManager().initialize();
+                loggedIn++;
+            } catch (BridgeError e) {
+                logger.warn("Unable to authenticate with Aveksa at '" + endpoint.getName() + "' during the warm-up.", e);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to authenticate with Aveksa at '" + endpoint.getName() + "' during the warm-up.", e);
+            }
+        }
+        long loginEnd = System.currentTimeMillis();
+
+        int opened = 0;
+        for (AveksaEndpoint endpoint : endpoints) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            opened += openConnections(endpoint);
+        }
+        long connectEnd = System.currentTimeMillis();
+
+        int prefetched = 0;
+        for (Query query : queries) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                prefetcher.prefetch(query);
+                prefetched++;
+            } catch (BridgeError e) {
+                logger.warn("Unable to prefetch the Aveksa query '" + query + "' during the warm-up.", e);
+            } catch (RuntimeException e) {
+                logger.warn("Unable to prefetch the Aveksa query '" + query + "' during the warm-up.", e);
+            }
+        }
+        long end = System.currentTimeMillis();
+
+        metrics.recordWarmup(end - start);
+        logger.info("Aveksa warm-up finished in " + (end - start) + " ms: logged in to " + loggedIn + " of "
+            + endpoints.size() + " nodes in " + (loginEnd - start) + " ms, opened " + opened + " of "
+            + connections * endpoints.size() + " connections in " + (connectEnd - loginEnd) + " ms, prefetched "
+            + prefetched + " of " + queries.size() + " queries in " + (end - connectEnd) + " ms.");
+    }
+
+    /**
+     * Leases the configured number of connections to a node at the same time, so the pool has to
+     * hand out distinct ones, connects any that are not open yet and returns them all to the pool.
+     * Returns the number of connections that are open.
+     */
+    private int openConnections(AveksaEndpoint endpoint) {
+        if (connections == 0) {
+            return 0;
+        }
+        HttpRoute route;
+        try {
+            URL url = new URL(endpoint.getUrl());
+            int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+            route = new HttpRoute(new HttpHost(url.getHost(), port, url.getProtocol()), null,
+                "https".equalsIgnoreCase(url.getProtocol()));
+        } catch (Exception e) {
+            logger.warn("Unable to open connections to Aveksa at '" + endpoint.getName() + "' during the warm-up.", e);
+            return 0;
+        }
+        List<HttpClientConnection> leased = new ArrayList<HttpClientConnection>();
+        int open = 0;
+        try {
+            for (int i = 0; i < connections; i++) {
+                ConnectionRequest request = connectionManager.requestConnection(route, null);
+                HttpClientConnection connection = request.get(connectTimeout, TimeUnit.MILLISECONDS);
+                leased.add(connection);
+                if (!connection.isOpen()) {
+                    HttpClientContext context = HttpClientContext.create();
+                    connectionManager.connect(connection, route, connectTimeout, context);
+                    connectionManager.routeComplete(connection, route, context);
+                    // Binds the socket streams, which otherwise only happens when the first
+                    // request is sent. The stale check the pool runs on an idle connection
+                    // before leasing it fails on a connection without them.
+                    connection.flush();
+                }
+                open++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Unable to open connections to Aveksa at '" + endpoint.getName() + "' during the warm-up.", e);
+        } finally {
+            for (HttpClientConnection connection : leased) {
+                connectionManager.releaseConnection(connection, null, keepAliveSeconds, TimeUnit.SECONDS);
+            }
+        }
+        return open;
+    }
+
+    private static BridgeError invalidQuery(String propertyName, String value) {
+        return new BridgeError("Invalid Property: '" + propertyName + "' contains the invalid query '" + value + "'.");
+    }
+}
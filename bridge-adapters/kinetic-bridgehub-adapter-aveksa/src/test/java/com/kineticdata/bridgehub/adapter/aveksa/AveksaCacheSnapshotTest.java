@@ -0,0 +1,251 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AveksaCacheSnapshotTest {
+
+    private static final String SOURCE = "https://aveksa.example.com user";
+
+    private File file;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("aveksa-snapshot", ".bin");
+        file.delete();
+        now = System.currentTimeMillis();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void roundTripsRowsAndCounts() throws IOException {
+        AveksaResultCache cache = newCache();
+        cache.restore("Users", "rows", "status=Active", rowResult(), now + 60000, now + 120000, now + 180000);
+        cache.restore("Users", "count", null, AveksaResult.ofCount(42), now + 60000, now + 60000, now + 60000);
+        new AveksaCacheSnapshot(file, SOURCE, cache, 300).save();
+
+        AveksaResultCache restoredCache = newCache();
+        new AveksaCacheSnapshot(file, SOURCE, restoredCache, 300).restore();
+        List<Entry> entries = entries(restoredCache);
+        assertEquals(2, entries.size());
+
+        Entry rows = entries.get(0);
+        assertEquals("Users", rows.structure);
+        assertEquals("rows", rows.key);
+        assertEquals("status=Active", rows.filter);
+        assertEquals(now + 60000, rows.expiresAt);
+        assertEquals(now + 120000, rows.staleUntil);
+        assertEquals(now + 180000, rows.fallbackUntil);
+        AveksaResult result = rows.result;
+        assertTrue(result.hasRows());
+        assertEquals(Arrays.asList("name", "value"), result.getFields());
+        assertEquals(7, result.getRowCount());
+        assertEquals("a", result.getValue(0, 0));
+        assertEquals(Long.valueOf(1), result.getValue(0, 1));
+        assertEquals("b", result.getValue(1, 0));
+        assertEquals(Double.valueOf(2.5), result.getValue(1, 1));
+        assertEquals("a", result.getValue(2, 0));
+        assertEquals(Boolean.TRUE, result.getValue(2, 1));
+        assertNull(result.getValue(3, 0));
+        assertEquals(Boolean.FALSE, result.getValue(3, 1));
+        assertEquals("c", result.getValue(4, 0));
+        assertNull(result.getValue(4, 1));
+        assertEquals("b", result.getValue(5, 0));
+        assertTrue(result.getValue(5, 1) instanceof JSONObject);
+        assertEquals(jsonObject(), result.getValue(5, 1));
+        assertEquals("d", result.getValue(6, 0));
+        assertTrue(result.getValue(6, 1) instanceof JSONArray);
+        assertEquals(jsonArray(), result.getValue(6, 1));
+
+        Entry count = entries.get(1);
+        assertNull(count.filter);
+        assertFalse(count.result.hasRows());
+        assertEquals(42, count.result.getCount());
+    }
+
+    @Test
+    public void keepsTheSortedOrder() throws IOException {
+        AveksaResultCache cache = newCache();
+        AveksaResult sorted = rowResult().sort(Collections.singletonMap("name", "DESC"));
+        cache.restore("Users", "sorted", null, sorted, now + 60000, now + 60000, now + 60000);
+        new AveksaCacheSnapshot(file, SOURCE, cache, 300).save();
+
+        AveksaResultCache restoredCache = newCache();
+        new AveksaCacheSnapshot(file, SOURCE, restoredCache, 300).restore();
+        AveksaResult result = entries(restoredCache).get(0).result;
+        assertEquals(sorted.getRowCount(), result.getRowCount());
+        for (int row = 0; row < sorted.getRowCount(); row++) {
+            assertEquals(String.valueOf(sorted.getValue(row, 0)), String.valueOf(result.getValue(row, 0)));
+            assertEquals(String.valueOf(sorted.getValue(row, 1)), String.valueOf(result.getValue(row, 1)));
+        }
+    }
+
+    @Test
+    public void restoresTheCompleteEntriesOfATruncatedFile() throws IOException {
+        AveksaResultCache cache = newCache();
+        cache.restore("Users", "rows", null, rowResult(), now + 60000, now + 60000, now + 60000);
+        cache.restore("Users", "count", null, AveksaResult.ofCount(42), now + 60000, now + 60000, now + 60000);
+        new AveksaCacheSnapshot(file, SOURCE, cache, 300).save();
+        // Cut into the count of the last entry
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        try {
+            truncated.setLength(truncated.length() - 5);
+        } finally {
+            truncated.close();
+        }
+
+        AveksaResultCache restoredCache = newCache();
+        new AveksaCacheSnapshot(file, SOURCE, restoredCache, 300).restore();
+        List<Entry> entries = entries(restoredCache);
+        assertEquals(1, entries.size());
+        assertEquals("rows", entries.get(0).key);
+    }
+
+    @Test
+    public void skipsAResultWithMoreRowsThanTheFileHasBytes() throws IOException {
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(file));
+        try {
+            output.writeInt(0x41564B53);
+            output.writeInt(2);
+            writeString(output, SOURCE);
+            output.writeLong(now);
+            output.writeBoolean(true);
+            writeString(output, "Users");
+            writeString(output, "rows");
+            output.writeBoolean(false);
+            output.writeLong(now + 60000);
+            output.writeLong(now + 60000);
+            output.writeLong(now + 60000);
+            output.writeBoolean(true);
+            output.writeByte(1);
+            writeString(output, "name");
+            // A row count of Integer.MAX_VALUE
+            output.write(new byte[] {(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07});
+        } finally {
+            output.close();
+        }
+
+        AveksaResultCache restoredCache = newCache();
+        new AveksaCacheSnapshot(file, SOURCE, restoredCache, 300).restore();
+        assertTrue(entries(restoredCache).isEmpty());
+    }
+
+    @Test
+    public void ignoresAndThenReplacesTheSnapshotOfAnotherSource() throws IOException {
+        AveksaResultCache cache = newCache();
+        cache.restore("Users", "count", null, AveksaResult.ofCount(42), now + 60000, now + 60000, now + 60000);
+        new AveksaCacheSnapshot(file, "https://other.example.com user", cache, 300).save();
+
+        AveksaResultCache restoredCache = newCache();
+        AveksaCacheSnapshot snapshot = new AveksaCacheSnapshot(file, SOURCE, restoredCache, 300);
+        snapshot.restore();
+        assertTrue(entries(restoredCache).isEmpty());
+
+        // The ignored file is replaced on shutdown with the results cached for this source
+        restoredCache.restore("Groups", "count", null, AveksaResult.ofCount(7), now + 60000, now + 60000, now + 60000);
+        snapshot.shutdown();
+        AveksaResultCache replacedCache = newCache();
+        new AveksaCacheSnapshot(file, SOURCE, replacedCache, 300).restore();
+        List<Entry> entries = entries(replacedCache);
+        assertEquals(1, entries.size());
+        assertEquals("Groups", entries.get(0).structure);
+        assertEquals(7, entries.get(0).result.getCount());
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static AveksaResultCache newCache() {
+        return new AveksaResultCache(new AveksaResultCache.Settings(600, 600, 3600, 1000, 10485760),
+            new HashMap<String,AveksaResultCache.Settings>());
+    }
+
+    /** Repeated values in both columns, so some are written as references. */
+    private static AveksaResult rowResult() {
+        Object[][] columns = {
+            {"a", "b", "a", null, "c", "b", "d"},
+            {Long.valueOf(1), Double.valueOf(2.5), Boolean.TRUE, Boolean.FALSE, null, jsonObject(), jsonArray()}
+        };
+        return AveksaResult.ofColumns(Arrays.asList("name", "value"), columns, 7, 512);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject jsonObject() {
+        JSONObject object = new JSONObject();
+        object.put("id", Long.valueOf(7));
+        object.put("tags", jsonArray());
+        return object;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONArray jsonArray() {
+        JSONArray array = new JSONArray();
+        array.add("x");
+        array.add(Double.valueOf(1.5));
+        array.add(null);
+        return array;
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        output.writeByte(bytes.length);
+        output.write(bytes);
+    }
+
+    private static List<Entry> entries(AveksaResultCache cache) throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        cache.visitEntries(new AveksaResultCache.EntryVisitor() {
+            @Override
+            public void visit(String structure, String key, String filter, AveksaResult result, long expiresAt,
+                long staleUntil, long fallbackUntil) {
+                entries.add(new Entry(structure, key, filter, result, expiresAt, staleUntil, fallbackUntil));
+            }
+        });
+        return entries;
+    }
+
+    private static class Entry {
+        private final String structure;
+        private final String key;
+        private final String filter;
+        private final AveksaResult result;
+        private final long expiresAt;
+        private final long staleUntil;
+        private final long fallbackUntil;
+
+        private Entry(String structure, String key, String filter, AveksaResult result, long expiresAt,
+            long staleUntil, long fallbackUntil) {
+            this.structure = structure;
+            this.key = key;
+            this.filter = filter;
+            this.result = result;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+            this.fallbackUntil = fallbackUntil;
+        }
+    }
+}
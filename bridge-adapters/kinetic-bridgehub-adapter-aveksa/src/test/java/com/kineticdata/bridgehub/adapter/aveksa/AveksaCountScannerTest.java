@@ -0,0 +1,64 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+public class AveksaCountScannerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void usesTheTotalWhenAveksaReportsOne() throws IOException {
+        assertEquals(42, count("{\"findUsers\":[{\"id\":1},{\"id\":2}],\"Total\":42}"));
+        assertEquals(42, count("{\"Total\":42.0,\"findUsers\":[{\"id\":1}]}"));
+        assertEquals(7, count("{\"findUsers\":[],\"Total\" : \"7\"}"));
+        assertEquals(0, count("{\"Total\":0,\"findUsers\":[{\"id\":1}]}"));
+    }
+
+    @Test
+    public void countsTheRowsWithoutATotal() throws IOException {
+        assertEquals(0, count("{\"findUsers\":[]}"));
+        assertEquals(0, count("{\"findUsers\":[ ] ,\"findGroups\":[{\"id\":1}]}"));
+        assertEquals(3, count("{\"Totals\":9,\"findUsers\" : [ {\"id\":1} , {\"id\":2,\"roles\":[{\"a\":1},{\"b\":2}]},{}]}"));
+        // Keys that start like the command, and structural characters inside strings, are ignored
+        assertEquals(2, count("{\"findUsersX\":[{},{},{}],\"findUsers\":"
+            + "[{\"name\":\"a],{\\\"b\\\":[\"},{\"name\":\"\\\\\"}],\"Total\\\"\":5}"));
+    }
+
+    @Test
+    public void countsABodySplitAcrossBuffers() throws IOException {
+        StringBuilder body = new StringBuilder("{\"findUsers\":[");
+        for (int i = 0; i < 5000; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"User, [").append(i).append("]\"}");
+        }
+        body.append("]}");
+        assertEquals(5000, count(body.toString(), 8192));
+        assertEquals(5000, count(body.toString(), 1));
+        assertEquals(12345, count("{\"findUsers\":[{\"id\":1}],\"Total\":12345}", 1));
+        assertEquals(1, count("{\"findUsers\":[{\"id\":1}],\"Total\":\"x\"}", 3));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static long count(String body) throws IOException {
+        return count(body, Integer.MAX_VALUE);
+    }
+
+    /** Scans the body through a stream that returns at most the given number of bytes per read. */
+    private static long count(String body, final int bytesPerRead) throws IOException {
+        AveksaCountScanner scanner = new AveksaCountScanner("findUsers");
+        scanner.parse(new ByteArrayInputStream(body.getBytes(UTF_8)) {
+            @Override
+            public synchronized int read(byte[] buffer, int offset, int length) {
+                return super.read(buffer, offset, Math.min(length, bytesPerRead));
+            }
+        }, UTF_8);
+        return scanner.getCount();
+    }
+}
@@ -0,0 +1,90 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AveksaMirrorTest {
+
+    private AveksaMirror mirror;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Object[][] columns = {
+            {Long.valueOf(1), Long.valueOf(2), Long.valueOf(3)},
+            {"Alice", "Bob", "alice"},
+            {"Sales", "Sales", "IT"}
+        };
+        final AveksaResult users = AveksaResult.ofColumns(Arrays.asList("id", "name", "department"), columns, 3, 256);
+        Map<String,Set<String>> structures = Collections.<String,Set<String>>singletonMap("Users",
+            new HashSet<String>(Arrays.asList("id", "department")));
+        mirror = new AveksaMirror(new AveksaMirror.Loader() {
+            @Override
+            public AveksaResult loadAll(String structure) {
+                return users;
+            }
+        }, structures, 60);
+        mirror.start();
+        for (int i = 0; i < 500 && mirror.query("Users", "*", null) == null; i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mirror.shutdown();
+    }
+
+    @Test
+    public void answersExactMatchesOnTheConfiguredAttributes() {
+        assertEquals(3, mirror.query("Users", "*", null).getRowCount());
+        assertEquals(2, mirror.query("Users", "department=Sales", null).getRowCount());
+        AveksaResult result = mirror.query("Users", "department=Sales&id=2", Arrays.asList("name"));
+        assertEquals(1, result.getRowCount());
+        assertEquals("Bob", result.getValue(0, result.getFieldIndex("name")));
+        assertEquals(0, mirror.query("Users", "id=4", null).getRowCount());
+    }
+
+    @Test
+    public void leavesOtherQueriesToAveksa() {
+        // Aveksa may match names without regard to case, so they are not answered locally
+        assertNull(mirror.query("Users", "name=alice", null));
+        assertNull(mirror.query("Users", "department=Sales&name=Bob", null));
+        assertNull(mirror.query("Users", "department=Sa*", null));
+        assertNull(mirror.query("Users", "id>1", null));
+        assertNull(mirror.query("Users", "*", Arrays.asList("email")));
+        assertNull(mirror.query("Groups", "*", null));
+    }
+
+    @Test
+    public void parsesStructuresWithTheirExactMatchAttributes() throws BridgeError {
+        Map<String,Set<String>> structures = AveksaMirror.parseStructures(" Users[id, employeeId] ,Groups,Roles[]", "Mirror Structures");
+        assertEquals(Arrays.asList("Users", "Groups", "Roles"), Arrays.asList(structures.keySet().toArray()));
+        assertEquals(new HashSet<String>(Arrays.asList("id", "employeeId")), structures.get("Users"));
+        assertEquals(Collections.emptySet(), structures.get("Groups"));
+        assertEquals(Collections.emptySet(), structures.get("Roles"));
+        assertEquals(0, AveksaMirror.parseStructures(null, "Mirror Structures").size());
+    }
+
+    @Test
+    public void rejectsUnbalancedBrackets() {
+        for (String value : new String[] {"Users[id", "Users]id[", "Users[id]x", "[id]", "Users[[id]]"}) {
+            try {
+                AveksaMirror.parseStructures(value, "Mirror Structures");
+                fail("'" + value + "' should have been rejected.");
+            } catch (BridgeError e) {
+                assertTrue(e.getMessage().startsWith("Invalid Property: 'Mirror Structures'"));
+            }
+        }
+    }
+}
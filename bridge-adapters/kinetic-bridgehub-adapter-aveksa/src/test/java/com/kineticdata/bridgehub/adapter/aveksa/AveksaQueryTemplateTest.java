@@ -0,0 +1,113 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import com.kineticdata.bridgehub.adapter.BridgeRequest;
+import java.lang.reflect.Field;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class AveksaQueryTemplateTest {
+
+    private final AveksaAdapter adapter = new AveksaAdapter();
+
+    @Test
+    public void encodesValuesAsTheUrlEncoderDoes() throws Exception {
+        String[] values = {"", "Alice", "a b", "a&b=c", "100%", "*.-_", "~!'()", "a+b/c?d#e", "\"<>\\^`{|}",
+            "\u00DCn\u00EFc\u00F6d\u00E9", "\u4E2D\u6587", "\uD83D\uDE00 x"};
+        for (String value : values) {
+            assertEquals(URLEncoder.encode(value, "UTF-8"), AveksaQueryTemplate.encodeValue(value));
+        }
+        String plain = "Alice.Smith-01_*";
+        assertSame(plain, AveksaQueryTemplate.encodeValue(plain));
+    }
+
+    @Test
+    public void encodesOnlyTheCharactersOfAConstantThatAreNotAllowedInAUrl() {
+        assertEquals("status=Active&name=a%2Bb%20c", AveksaQueryTemplate.encodeConstant("status=Active&name=a%2Bb c"));
+        assertEquals("name=%22%C3%9C%F0%9F%98%80%22%7C%23", AveksaQueryTemplate.encodeConstant("name=\"\u00DC\uD83D\uDE00\"|#"));
+        String plain = "status=Active&department=Sales*";
+        assertSame(plain, AveksaQueryTemplate.encodeConstant(plain));
+    }
+
+    @Test
+    public void resolvesParametersIntoTheCompiledQuery() throws BridgeError {
+        AveksaQueryTemplate template = AveksaQueryTemplate.compile(
+            "status=Active&name=<%=parameter[\"Name\"]%>&title=<%= parameter[\"Title\"] %>");
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("Name", "Smith & Sons=1");
+        parameters.put("Title", "VP Sales");
+        assertEquals("status=Active&name=Smith+%26+Sons%3D1&title=VP+Sales", template.resolve(parameters));
+        assertEquals("status=Active", AveksaQueryTemplate.compile("status=Active").resolve(null));
+
+        try {
+            template.resolve(Collections.singletonMap("Name", "Smith"));
+            fail("The missing parameter should have been reported.");
+        } catch (BridgeError e) {
+            assertEquals("Unable to parse qualification, the 'Title' parameter was referenced but not provided.", e.getMessage());
+        }
+        try {
+            template.resolve(null);
+            fail("The missing parameters should have been reported.");
+        } catch (BridgeError e) {
+            assertEquals("Unable to parse qualification, the 'Name' parameter was referenced but no parameters were provided.",
+                e.getMessage());
+        }
+    }
+
+    @Test
+    public void anEmptyQuerySendsNoFilter() throws BridgeError {
+        String prefix = "/aveksa/command.submit?cmd=findUsers&format=json";
+        for (String query : new String[] {null, "", "<%=parameter[\"Filter\"]%>"}) {
+            String filterParameters = adapter.resolveFilter(request(query, "Filter", ""));
+            assertEquals("*", filterParameters);
+            assertEquals(prefix, adapter.buildCommandUrl("findUsers", null, filterParameters));
+        }
+        assertEquals(prefix + "&status=Active",
+            adapter.buildCommandUrl("findUsers", null, adapter.resolveFilter(request("status=Active", "Filter", ""))));
+    }
+
+    @Test
+    public void boundsTheCompiledTemplatesAndUrlPrefixes() throws Exception {
+        for (int i = 0; i < 1100; i++) {
+            String query = "id=" + i + "&name=<%=parameter[\"Name\"]%>";
+            assertEquals("id=" + i + "&name=User+" + i, adapter.resolveFilter(request(query, "Name", "User " + i)));
+            List<String> columns = new ArrayList<String>(Arrays.asList("id", "column " + i));
+            assertEquals("/aveksa/command.submit?cmd=findUsers&format=json&returnColumns=id,column+" + i + "&id=" + i,
+                adapter.buildCommandUrl("findUsers", columns, "id=" + i));
+            // The caller's list may be reused after the call
+            columns.set(1, "changed");
+        }
+        assertEquals(1000, ((Map<?,?>)field("queryTemplates")).size());
+        Map<?,?> commandUrls = (Map<?,?>)((Map<?,?>)field("commandUrlPrefixes")).get("findUsers");
+        assertEquals(1000, commandUrls.size());
+        assertEquals("/aveksa/command.submit?cmd=findUsers&format=json&returnColumns=id,column+0",
+            commandUrls.get(Arrays.asList("id", "column 0")));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static BridgeRequest request(String query, String parameter, String value) {
+        BridgeRequest request = new BridgeRequest();
+        request.setStructure("Users");
+        request.setQuery(query);
+        request.setParameters(Collections.singletonMap(parameter, value));
+        return request;
+    }
+
+    private Object field(String name) throws Exception {
+        Field field = AveksaAdapter.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(adapter);
+    }
+}
@@ -0,0 +1,103 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AveksaResponseParserTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void buildsNestedObjectsAndArraysAsANonStreamingParseWould() throws Exception {
+        String row = "{\"id\":1,\"roles\":[{\"name\":\"Admin\",\"tags\":[\"a\",[true,null]]},2.5,\"x\"],"
+            + "\"manager\":{\"id\":2,\"groups\":[{\"name\":\"IT\"}]},\"name\":\"Alice\"}";
+        AveksaResponseParser parser = parse("{\"findUsers\":[" + row + "],\"Total\":1}", Arrays.asList("id", "roles", "name"), -1);
+        AveksaResult result = parser.getResult();
+
+        Map<?,?> expected = (Map<?,?>)new JSONParser().parse(row);
+        assertEquals(1, result.getRowCount());
+        assertEquals(expected.get("id"), result.getValue(0, result.getFieldIndex("id")));
+        Object roles = result.getValue(0, result.getFieldIndex("roles"));
+        assertTrue(roles instanceof JSONArray);
+        assertTrue(((List<?>)roles).get(0) instanceof JSONObject);
+        assertEquals(expected.get("roles"), roles);
+        // The nested value of a column that is not kept leaves the following columns intact
+        assertEquals("Alice", result.getValue(0, result.getFieldIndex("name")));
+        assertEquals(-1, result.getFieldIndex("manager"));
+        assertEquals(Long.valueOf(1), parser.getTotal());
+    }
+
+    @Test
+    public void keepsOnlyTheSelectedColumnsInTheirOrder() throws Exception {
+        String body = "{\"findUsers\":[{\"id\":1,\"name\":\"Alice\",\"email\":\"a@x\"},{\"name\":\"Bob\",\"id\":2}],"
+            + "\"findGroups\":[{\"id\":3}]}";
+        AveksaResult result = parse(body, Arrays.asList("email", "id", "title"), -1).getResult();
+
+        assertEquals(Arrays.asList("email", "id", "title"), result.getFields());
+        assertEquals(2, result.getRowCount());
+        assertEquals("a@x", result.getValue(0, 0));
+        assertEquals(Long.valueOf(2), result.getValue(1, 1));
+        assertNull(result.getValue(1, 0));
+        assertNull(result.getValue(0, 2));
+    }
+
+    @Test
+    public void collectsEveryReturnedColumnWithoutASelection() throws Exception {
+        String body = "{\"Total\":\"2\",\"findUsers\":[{\"id\":1},{\"id\":2,\"name\":\"Bob\"},{\"id\":3}]}";
+        AveksaResponseParser parser = parse(body, null, 2);
+        AveksaResult result = parser.getResult();
+
+        assertEquals(Arrays.asList("id", "name"), result.getFields());
+        // Parsing stops once there is one more row than the maximum, so callers can tell there are more
+        assertEquals(3, result.getRowCount());
+        assertNull(result.getValue(0, 1));
+        assertEquals("Bob", result.getValue(1, 1));
+        assertEquals(Long.valueOf(2), parser.getTotal());
+    }
+
+    @Test
+    public void sharesRepeatedValuesUntilAColumnHasTooManyDistinctOnes() throws Exception {
+        // Distinct ids, with u0 repeated before the column passes 256 distinct values and u1
+        // repeated after it
+        String[] ids = new String[400];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = "u" + i;
+        }
+        ids[100] = "u0";
+        ids[399] = "u1";
+        StringBuilder body = new StringBuilder("{\"findUsers\":[");
+        for (int i = 0; i < ids.length; i++) {
+            body.append(i == 0 ? "" : ",").append("{\"id\":\"").append(ids[i]).append("\",\"department\":\"Sales\"}");
+        }
+        body.append("]}");
+        AveksaResult result = parse(body.toString(), Arrays.asList("id", "department"), -1).getResult();
+
+        assertEquals(400, result.getRowCount());
+        assertSame(result.getValue(0, 1), result.getValue(399, 1));
+        assertSame(result.getValue(0, 0), result.getValue(100, 0));
+        assertEquals(result.getValue(1, 0), result.getValue(399, 0));
+        assertNotSame(result.getValue(1, 0), result.getValue(399, 0));
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private static AveksaResponseParser parse(String body, List<String> fields, int maxRows) throws Exception {
+        AveksaResponseParser parser = new AveksaResponseParser("findUsers", fields, maxRows);
+        parser.parse(new ByteArrayInputStream(body.getBytes(UTF_8)), UTF_8);
+        return parser;
+    }
+}
@@ -0,0 +1,188 @@
+package com.kineticdata.bridgehub.adapter.aveksa;
+
+import com.kineticdata.bridgehub.adapter.BridgeError;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AveksaTokenManagerTest {
+
+    private ExecutorService callers;
+    private AveksaTokenManager tokenManager;
+
+    @Before
+    public void setUp() {
+        callers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+        if (tokenManager != null) {
+            tokenManager.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentCallersShareOneLogin() throws Exception {
+        BlockingAuthenticator authenticator = new BlockingAuthenticator();
+        tokenManager = new AveksaTokenManager(authenticator, 0);
+        List<Future<String>> tokens = new ArrayList<Future<String>>();
+        for (int i = 0; i < 5; i++) {
+            tokens.add(callers.submit(getToken()));
+        }
+        authenticator.started.await(5, TimeUnit.SECONDS);
+        authenticator.release.countDown();
+
+        for (Future<String> token : tokens) {
+            assertEquals("token=1", token.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, authenticator.logins.get());
+    }
+
+    @Test
+    public void aRejectedTokenIsReplacedOnce() throws Exception {
+        BlockingAuthenticator authenticator = new BlockingAuthenticator();
+        authenticator.release.countDown();
+        tokenManager = new AveksaTokenManager(authenticator, 0);
+        String rejected = tokenManager.getToken();
+
+        assertEquals("token=2", tokenManager.tokenRejected(rejected));
+        // A caller still holding the rejected token gets its replacement without another login
+        assertEquals("token=2", tokenManager.tokenRejected(rejected));
+        assertEquals(2, authenticator.logins.get());
+    }
+
+    @Test
+    public void aFailedLoginIsHandedToEveryWaiterAndRemembered() throws Exception {
+        final BridgeError failure = new BridgeError("Unable to authenticate with Aveksa as 'user'.");
+        final AtomicInteger logins = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        tokenManager = new AveksaTokenManager(new AveksaTokenManager.Authenticator() {
+            @Override
+            public String authenticate() throws BridgeError {
+                logins.incrementAndGet();
+                await(release);
+                throw failure;
+            }
+        }, 0);
+        List<Future<String>> tokens = new ArrayList<Future<String>>();
+        for (int i = 0; i < 5; i++) {
+            tokens.add(callers.submit(getToken()));
+        }
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Future<String> token : tokens) {
+            try {
+                token.get(5, TimeUnit.SECONDS);
+                fail("The login should have failed.");
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+        // Callers right after the failure get it without logging in again
+        try {
+            tokenManager.getToken();
+            fail("The login should have failed.");
+        } catch (BridgeError e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    public void anInterruptedCallerStopsWaitingAndTheLoginCarriesOn() throws Exception {
+        BlockingAuthenticator authenticator = new BlockingAuthenticator();
+        tokenManager = new AveksaTokenManager(authenticator, 0);
+        final BridgeError[] error = new BridgeError[1];
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tokenManager.getToken();
+                } catch (BridgeError e) {
+                    error[0] = e;
+                }
+            }
+        });
+        caller.start();
+        authenticator.started.await(5, TimeUnit.SECONDS);
+
+        // What the bulkhead does once the caller's deadline has passed
+        caller.interrupt();
+        caller.join(5000);
+        assertFalse(caller.isAlive());
+        assertTrue(error[0] != null);
+        authenticator.release.countDown();
+        assertEquals("token=1", callers.submit(getToken()).get(5, TimeUnit.SECONDS));
+        assertEquals(1, authenticator.logins.get());
+    }
+
+    @Test
+    public void shutdownFailsCallersWaitingForALogin() throws Exception {
+        BlockingAuthenticator authenticator = new BlockingAuthenticator();
+        tokenManager = new AveksaTokenManager(authenticator, 0);
+        Future<String> token = callers.submit(getToken());
+        authenticator.started.await(5, TimeUnit.SECONDS);
+
+        tokenManager.shutdown();
+        try {
+            token.get(5, TimeUnit.SECONDS);
+            fail("The login should have been cancelled.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BridgeError);
+        }
+    }
+
+    /*----------------------------------------------------------------------------------------------
+     * PRIVATE HELPER METHODS
+     *--------------------------------------------------------------------------------------------*/
+
+    private Callable<String> getToken() {
+        return new Callable<String>() {
+            @Override
+            public String call() throws BridgeError {
+                return tokenManager.getToken();
+            }
+        };
+    }
+
+    private static void await(CountDownLatch latch) throws BridgeError {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new BridgeError(e);
+        }
+    }
+
+    /** Returns token=1, token=2 and so on, once released. */
+    private static class BlockingAuthenticator implements AveksaTokenManager.Authenticator {
+        private final AtomicInteger logins = new AtomicInteger();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String authenticate() throws BridgeError {
+            int login = logins.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "token=" + login;
+        }
+    }
+}